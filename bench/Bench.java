@@ -0,0 +1,164 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/* Micro-benchmarks of the store hot paths, each run with 1, 4, 16 and
+ * 64 threads by default, plus an end-to-end benchmark of the whole store
+ * in events mode reporting the simulated purchases per second.
+ *
+ * The section and delivery box benchmarks are run with each lock strategy.
+ *
+ * Usage: java -cp build Bench [threads=1,4,16,64] [warmup=1000] [time=3000]
+ *                             [locks=FAIR,UNFAIR,STAMPED,SPIN]
+ *                             [customers=100] [assistants=10] [ticks=100000]
+ */
+public class Bench {
+    private static int[] threadCounts = { 1, 4, 16, 64 };
+    private static SharedResource.LockStrategy[] locks = SharedResource.LockStrategy.values();
+    private static int warmupMs  = 1000; // duration of the warmup of each run
+    private static int measureMs = 3000; // duration of the measurement of each run
+
+    private static volatile int phase; // 0: warmup, 1: measuring, 2: stopping
+
+    /* Run the operations given by "operation" (one instance per thread) on "threads"
+     * threads, and print the throughput measured after the warmup.
+     */
+    private static void measure(String name, int threads, Supplier<Runnable> operation) throws InterruptedException {
+        LongAdder operations = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        phase = 0;
+
+        for (int i = 0; i < threads; i++) {
+            Runnable op = operation.get();
+            workers[i] = new Thread(() -> {
+                long count = 0;
+                int current;
+                while ((current = phase) != 2) {
+                    op.run();
+                    if (current == 1) { count++; }
+                }
+                operations.add(count);
+            });
+            workers[i].start();
+        }
+
+        Thread.sleep(warmupMs);  phase = 1;
+        Thread.sleep(measureMs); phase = 2;
+        for (Thread worker : workers) { worker.join(); }
+
+        double opsPerSecond = operations.sum() * 1000.0 / measureMs;
+        System.out.printf("%-32s threads: %3d   %,15.0f ops/s   %10.1f ns/op (per thread)%n",
+                          name, threads, opsPerSecond, threads * 1e9 / opsPerSecond);
+    }
+
+    /* Section: a customer buying an item right after an assistant added one. */
+    private static void section() throws InterruptedException {
+        for (SharedResource.LockStrategy lock : locks) {
+            for (int threads : threadCounts) {
+                Section section = new Section(Category.BOOKS, lock);
+                measure("section add/remove " + lock, threads, () -> () -> {
+                    section.requestAccess();
+                    try { section.addItem(); section.removeItem(); }
+                    finally { section.freeAccess(); }
+                });
+            }
+        }
+    }
+
+    /* Section: customers checking the stock while an assistant restocks it. */
+    private static void sectionReads() throws InterruptedException {
+        for (SharedResource.LockStrategy lock : locks) {
+            for (int threads : threadCounts) {
+                Section section = new Section(Category.BOOKS, lock);
+                int[] thread = { 0 };
+                measure("section reads " + lock, threads, () -> {
+                    if (thread[0]++ > 0) { return section::numberOfItems; } // readers
+                    return () -> {                                          // one writer
+                        section.requestAccess();
+                        try { section.addItem(); section.removeItem(); }
+                        finally { section.freeAccess(); }
+                    };
+                });
+            }
+        }
+    }
+
+    /* Section: customers queuing up and giving up, with the demand index updated. */
+    private static void waitingCustomers() throws InterruptedException {
+        for (int threads : threadCounts) {
+            Section section = new Section(Category.BOOKS, SharedResource.LockStrategy.FAIR, new DemandIndex());
+            measure("waiting customers", threads, () -> {
+                Section.Demand demand = new Section.Demand();
+                return () -> {
+                    section.addWaitingCustomer(demand, 0);
+                    section.removeWaitingCustomer(demand);
+                };
+            });
+        }
+    }
+
+    /* Delivery box: a delivery put in the box and claimed right away by an assistant. */
+    private static void deliveryClaim() throws InterruptedException {
+        for (SharedResource.LockStrategy lock : locks) {
+            for (int threads : threadCounts) {
+                DeliveryBox box = new DeliveryBox(lock);
+                measure("delivery claim " + lock, threads, () -> {
+                    int[] batch      = new int[Category.values().length];
+                    Load carried     = new Load();
+                    Category[] order = Category.values();
+                    DeliveryTruck.randomDelivery(new Random(), 10, batch);
+                    return () -> {
+                        box.addItems(batch);
+                        while (box.claim(order, 10, 2, carried) > 0) { carried.clear(); }
+                    };
+                });
+            }
+        }
+    }
+
+    /* End-to-end: the whole store simulated in events mode. */
+    private static void store(int customers, int assistants, int ticks) {
+        Properties overrides = new Properties();
+        overrides.setProperty("MODE", "EVENTS");
+        overrides.setProperty("LOG_LEVEL", "OFF");
+        overrides.setProperty("CUSTOMERS", "" + customers);
+        overrides.setProperty("ASSISTANTS", "" + assistants);
+
+        for (int run = 0; run < 3; run++) { // the first runs are warmup
+            Store store = new Store(overrides);
+            long start  = System.nanoTime();
+            store.simulate(ticks);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%-32s run: %d   %,12.0f purchases/s   %,12.0f ticks/s   (customers: %d, assistants: %d, ticks: %d)%n",
+                              "store", run, store.itemsSold.sum() / seconds, ticks / seconds, customers, assistants, ticks);
+        }
+    }
+
+    public static void main(String[] argv) throws InterruptedException {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            String[] keyValue = arg.split("=", 2);
+            args.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+        }
+
+        if (args.containsKey("threads")) {
+            threadCounts = Arrays.stream(args.get("threads").split(",")).mapToInt(Integer::parseInt).toArray();
+        }
+        if (args.containsKey("locks")) {
+            locks = Arrays.stream(args.get("locks").split(",")).map(SharedResource.LockStrategy::valueOf)
+                          .toArray(SharedResource.LockStrategy[]::new);
+        }
+        warmupMs  = Integer.parseInt(args.getOrDefault("warmup", "" + warmupMs));
+        measureMs = Integer.parseInt(args.getOrDefault("time", "" + measureMs));
+
+        section();
+        sectionReads();
+        waitingCustomers();
+        deliveryClaim();
+
+        store(Integer.parseInt(args.getOrDefault("customers", "100")),
+              Integer.parseInt(args.getOrDefault("assistants", "10")),
+              Integer.parseInt(args.getOrDefault("ticks", "100000")));
+    }
+}
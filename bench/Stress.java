@@ -0,0 +1,266 @@
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Stress harness of the inventory invariants: a section, the delivery box
+ * and the whole store are driven by hundreds of threads with random
+ * operations, for each lock strategy, while a checker thread verifies
+ * continuously that no counter goes negative (and that the box stays
+ * within its capacity), and at the end that every item is accounted for:
+ * added = bought + left in the section, delivered = claimed + left in the
+ * box. For the store, each consistent picture must conserve the items:
+ * received = sold + shelved + boxed + carried. Last, the chain of
+ * config/Chain.config is simulated, each store must conserve its items
+ * and both send and receive some, received <= sent for the chain. The throughput of each run
+ * is printed with the number of checks done, and the harness exits with
+ * status 1 if any invariant was broken. Run with -ea for the assertions
+ * of the classes under test.
+ *
+ * Usage: java -ea -cp build Stress [threads=256] [time=3000]
+ *                                  [locks=FAIR,UNFAIR,STAMPED,SPIN]
+ *                                  [modes=THREADS,VIRTUAL] [ticks=3000]
+ */
+public class Stress {
+    private static int threads  = 256;  // number of threads driving the section and the box, customers of the store
+    private static int measureMs = 3000; // duration of the section and box runs
+    private static int ticks     = 3000; // duration of the store runs
+    private static SharedResource.LockStrategy[] locks = SharedResource.LockStrategy.values();
+    private static Store.Mode[] modes = { Store.Mode.THREADS, Store.Mode.VIRTUAL };
+
+    private static volatile boolean running; // false once the workers must stop
+    private static int failures;             // number of runs that broke an invariant
+
+    /* Runs "check" in a loop on its own thread until "running" is false,
+     * "checks" counting the checks done, returns the thread.
+     */
+    private static Thread checker(Runnable check, AtomicLong checks) {
+        Thread thread = new Thread(() -> {
+            while (running) { check.run(); checks.incrementAndGet(); }
+        }, "checker");
+        thread.start();
+        return thread;
+    }
+
+    private static void report(String name, String lock, long operations, double seconds, long checks, List<String> violations) {
+        System.out.printf("%-10s %-8s %,15.0f ops/s   %,12d checks   %s%n", name, lock, operations / seconds, checks,
+                          violations.isEmpty() ? "OK" : "FAILED " + violations.subList(0, Math.min(5, violations.size())));
+        if (!violations.isEmpty()) { failures++; }
+    }
+
+    /* Section: half of the threads are customers buying one item at a time, waiting
+     * in the queue when the section is empty, the other half are assistants adding
+     * 1 to 3 items at a time.
+     */
+    private static void section(SharedResource.LockStrategy lock) throws InterruptedException {
+        DemandIndex index = new DemandIndex();
+        Section section   = new Section(Category.BOOKS, lock, index);
+        LongAdder added = new LongAdder(), bought = new LongAdder();
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong checks = new AtomicLong();
+
+        running = true;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            boolean customer = i % 2 == 0;
+            workers.add(new Thread(() -> {
+                Random random = new Random();
+                Section.Demand demand = new Section.Demand();
+                while (running) {
+                    section.requestAccess();
+                    try {
+                        if (customer) {
+                            if (section.awaitItem(demand, 0)) { section.removeItem(demand); bought.increment(); }
+                        } else {
+                            int count = 1 + random.nextInt(3);
+                            section.addItems(count);
+                            added.add(count);
+                        }
+                    } finally { section.freeAccess(); }
+                }
+            }));
+        }
+
+        // the items and the reserved ones change together, so they are read holding the access
+        Thread checker = checker(() -> {
+            section.requestAccess();
+            try {
+                int items = section.numberOfItems(), free = section.freeItems(), waiting = section.waitingCustomers();
+                if (items < 0 || free < 0 || free > items || waiting < 0 || index.waiting(Category.BOOKS) < 0) {
+                    violations.add("items=" + items + " free=" + free + " waiting=" + waiting);
+                }
+            } finally { section.freeAccess(); }
+        }, checks);
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        Thread.sleep(measureMs);
+        running = false;
+        section.close(); // the customers waiting leave
+        for (Thread worker : workers) { worker.join(); }
+        checker.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (added.sum() != bought.sum() + section.numberOfItems()) {
+            violations.add("added " + added.sum() + " != bought " + bought.sum() + " + left " + section.numberOfItems());
+        }
+        if (section.waitingCustomers() != 0 || index.total() != 0) { violations.add("customers still waiting"); }
+        report("section", lock.name(), added.sum() + bought.sum(), seconds, checks.get(), violations);
+    }
+
+    /* Delivery box of 64 items: half of the threads are trucks delivering 1 to
+     * 10 items at a time, waiting for room when the box is full, the other half
+     * are assistants claiming up to 10 items of 2 categories.
+     */
+    private static void deliveryBox(SharedResource.LockStrategy lock) throws InterruptedException {
+        int capacity = 64;
+        DeliveryBox box = new DeliveryBox(lock, capacity);
+        LongAdder delivered = new LongAdder(), claimed = new LongAdder();
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong checks = new AtomicLong();
+
+        running = true;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            boolean truck = i % 2 == 0;
+            workers.add(new Thread(() -> {
+                Random random = new Random();
+                int[] batch = new int[Category.values().length];
+                Load carried = new Load();
+                Category[] order = Category.values();
+                while (running) {
+                    if (truck) {
+                        int items = 1 + random.nextInt(10);
+                        DeliveryTruck.randomDelivery(random, items, batch);
+                        if (box.tryAddItems(batch, items)) { delivered.add(items); }
+                        else { box.awaitRoom(items); }
+                    } else {
+                        Collections.shuffle(Arrays.asList(order), random);
+                        claimed.add(box.claim(order, 10, 2, carried));
+                        carried.clear();
+                    }
+                }
+            }));
+        }
+
+        Thread checker = checker(() -> {
+            int total = box.numberOfItems();
+            if (total < 0 || total > capacity) { violations.add("total=" + total); }
+            for (Category category : Category.values()) {
+                if (box.numberOfItems(category) < 0) { violations.add(category + "=" + box.numberOfItems(category)); }
+            }
+        }, checks);
+
+        long start = System.nanoTime();
+        workers.forEach(Thread::start);
+        Thread.sleep(measureMs);
+        running = false;
+        box.close(); // the trucks waiting for room leave
+        for (Thread worker : workers) { worker.join(); }
+        checker.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int left = 0;
+        for (Category category : Category.values()) { left += box.numberOfItems(category); }
+        if (delivered.sum() != claimed.sum() + left || left != box.numberOfItems()) {
+            violations.add("delivered " + delivered.sum() + " != claimed " + claimed.sum() + " + left " + left);
+        }
+        report("box", lock.name(), delivered.sum() + claimed.sum(), seconds, checks.get(), violations);
+    }
+
+    /* Whole store: "threads" customers, an assistant per 8 customers and 4 trucks
+     * filling a bounded delivery box, a tick per millisecond, for "ticks" ticks.
+     */
+    private static void store(Store.Mode mode, SharedResource.LockStrategy lock) throws InterruptedException {
+        Properties overrides = new Properties();
+        overrides.setProperty("MODE", mode.name());
+        overrides.setProperty("LOG_LEVEL", "OFF");
+        overrides.setProperty("TICK_TIME", "1");
+        overrides.setProperty("CUSTOMERS", "" + threads);
+        overrides.setProperty("ASSISTANTS", "" + Math.max(1, threads / 8));
+        overrides.setProperty("TRUCKS", "4");
+        overrides.setProperty("DELIVERY_INTERVAL", "2");
+        overrides.setProperty("BOX_CAPACITY", "100");
+        overrides.setProperty("LOCK_STRATEGY", lock.name());
+        overrides.setProperty("METRICS_FILE", "");
+        overrides.setProperty("JOURNAL_FILE", "");
+        overrides.setProperty("CHECKPOINT_FILE", "");
+
+        Store store = new Store(overrides);
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong checks = new AtomicLong();
+
+        running = true;
+        Thread checker = checker(() -> {
+            StoreState state = store.state();
+            if (!state.itemsConserved()) {
+                violations.add("tick " + state.ticks + ": received " + state.itemsReceived + " != " + state.totalItems());
+            }
+            if (!state.countsValid()) { violations.add("tick " + state.ticks + ": negative count"); }
+        }, checks);
+
+        long start = System.nanoTime();
+        store.run(ticks, 0);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        checker.join();
+
+        StoreState state = store.state();
+        if (!state.itemsConserved() || !state.countsValid()) { violations.add("at the end: " + state.describe(new StringBuilder())); }
+        report("store " + mode.name().toLowerCase(), lock.name(), store.itemsSold.sum(), seconds, checks.get(), violations);
+    }
+
+    /* Chain of config/Chain.config: the items of each store are conserved, counting the ones
+     * sent and received, each store sent and received items, and none was received without
+     * being sent.
+     */
+    private static void chain() throws InterruptedException, ExecutionException {
+        List<String> violations = new ArrayList<>();
+        Chain chain = new Chain();
+        double seconds = chain.simulate();
+
+        long sold = 0;
+        for (int i = 0; i < chain.stores().length; i++) {
+            Store store = chain.stores()[i];
+            StoreState state = store.state();
+            if (!state.itemsConserved()) { violations.add("store " + i + ": received " + state.itemsReceived + " != " + state.totalItems()); }
+            if (store.metrics.counter("chain.items_sent").sum() == 0 || store.metrics.counter("chain.items_received").sum() == 0) {
+                violations.add("store " + i + ": no item transferred");
+            }
+            sold += store.itemsSold.sum();
+        }
+        if (chain.itemsReceived() > chain.itemsSent()) {
+            violations.add("received " + chain.itemsReceived() + " > sent " + chain.itemsSent());
+        }
+        report("chain", "", sold, seconds, chain.stores().length, violations);
+    }
+
+    public static void main(String[] argv) throws InterruptedException, ExecutionException {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            String[] keyValue = arg.split("=", 2);
+            args.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+        }
+
+        threads   = Integer.parseInt(args.getOrDefault("threads", "" + threads));
+        measureMs = Integer.parseInt(args.getOrDefault("time", "" + measureMs));
+        ticks     = Integer.parseInt(args.getOrDefault("ticks", "" + ticks));
+        if (args.containsKey("locks")) {
+            locks = Arrays.stream(args.get("locks").split(",")).map(SharedResource.LockStrategy::valueOf)
+                          .toArray(SharedResource.LockStrategy[]::new);
+        }
+        if (args.containsKey("modes")) {
+            modes = Arrays.stream(args.get("modes").split(",")).map(Store.Mode::valueOf).toArray(Store.Mode[]::new);
+        }
+
+        for (SharedResource.LockStrategy lock : locks) {
+            section(lock);
+            deliveryBox(lock);
+            for (Store.Mode mode : modes) { store(mode, lock); }
+        }
+        chain();
+
+        System.out.println(failures == 0 ? "all invariants held" : failures + " runs broke an invariant");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
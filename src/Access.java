@@ -0,0 +1,117 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.*;
+import java.util.function.IntSupplier;
+
+/* The lock behind the access to a shared resource, one implementation
+ * per SharedResource.LockStrategy. The access is not reentrant.
+ */
+abstract class Access {
+    LongAdder optimisticFailures; // optimistic reads invalidated by a writer, null if not instrumented
+
+    /* Take the access, returns true if another thread was holding it. */
+    abstract boolean lock();
+
+    abstract void unlock();
+
+    /* Condition bound to the lock, null if the lock has no conditions. */
+    Condition newCondition() { return null; }
+
+    /* Read a field changed only while holding the access, without taking it. */
+    int read(IntSupplier field) { return field.getAsInt(); }
+
+    static Access of(SharedResource.LockStrategy strategy) {
+        switch (strategy) {
+            case UNFAIR:  return new Reentrant(false);
+            case STAMPED: return new Stamped();
+            case SPIN:    return new Spin();
+            default:      return new Reentrant(true);
+        }
+    }
+
+    /* FAIR and UNFAIR: a ReentrantLock, the fair one gives the access in
+     * the order it was requested, at the cost of a thread switch at each hand-off.
+     */
+    private static final class Reentrant extends Access {
+        private final ReentrantLock lock;
+
+        Reentrant(boolean fair) { lock = new ReentrantLock(fair); }
+
+        boolean lock() {
+            boolean contended = lock.isLocked();
+            lock.lock();
+            return contended;
+        }
+
+        void unlock() { lock.unlock(); }
+
+        Condition newCondition() { return lock.newCondition(); }
+    }
+
+    /* STAMPED: the access is the write lock of a StampedLock, and the
+     * read-only paths read optimistically, without writing to the lock.
+     */
+    private static final class Stamped extends Access {
+        private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+        private final StampedLock lock = new StampedLock();
+        private long stamp;    // stamp of the write lock, only used by the holder
+        private Thread holder; // only compared to the current thread, which is the only one setting it
+
+        boolean lock() {
+            long acquired  = lock.tryWriteLock();
+            boolean contended = acquired == 0;
+            if (contended) { acquired = lock.writeLock(); }
+            stamp  = acquired;
+            holder = Thread.currentThread();
+            return contended;
+        }
+
+        void unlock() {
+            holder = null;
+            lock.unlockWrite(stamp);
+        }
+
+        int read(IntSupplier field) {
+            if (holder == Thread.currentThread()) { return field.getAsInt(); }
+
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                long optimistic = lock.tryOptimisticRead();
+                int value = field.getAsInt();
+                if (lock.validate(optimistic)) { return value; }
+
+                if (optimisticFailures != null) { optimisticFailures.increment(); }
+                Thread.onSpinWait();
+            }
+
+            // the access is held for long (actors hold it while sleeping), we wait
+            // for the holder, as the field may combine several counters; the callers
+            // holding the items gate of the store read without the access instead,
+            // the holder may be waiting for the gate
+            long read = lock.readLock();
+            try { return field.getAsInt(); }
+            finally { lock.unlockRead(read); }
+        }
+    }
+
+    /* SPIN: lock-free acquisition, threads spin on a compare-and-set of the
+     * holder instead of being queued and parked, yielding while they spin.
+     * There is no fairness at all, nor conditions.
+     */
+    private static final class Spin extends Access {
+        private final AtomicReference<Thread> holder = new AtomicReference<>();
+
+        boolean lock() {
+            Thread current = Thread.currentThread();
+            if (holder.compareAndSet(null, current)) { return false; }
+
+            for (int spins = 0; ; spins++) {
+                if (holder.get() == null && holder.compareAndSet(null, current)) { return true; }
+                if (spins < 64) { Thread.onSpinWait(); }
+                else { Thread.yield(); }
+            }
+        }
+
+        void unlock() { holder.set(null); }
+    }
+}
@@ -1,199 +1,213 @@
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Assistant extends Util implements Runnable  {
-    private static final int TIME_TO_SECTION       = 10; // time to go to a certain section
-    private static final int TIME_TO_DELIVERY_AREA = 10; // time to walk back to delivery area when in a section
+    // hot-reloaded by "configure", from the settings of the store
+    private volatile int MAX_SECTIONS;   // maximum number of category of items the assistant can carry
+    private volatile int MAX_ITEMS;      // maximum number of items the assistant can carry
+    private volatile int BREAK_INTERVAL; // 1 / BREAK_INTERVAL = P("assistant takes a break at each tick"), rolled for the ticks since it last looked
+    private volatile int BREAK_TIME;     // duration of a break
 
-    private final int MAX_SECTIONS;  // maximum number of category of items the assistant can carry
-    private final int MAX_ITEMS; // maximum number of items the assistant can carry
-    private final int BREAK_INTERVAL; // 1 / BREAK_INTERVAL = P("assistant takes a break at each tick")
-    private final int BREAK_TIME; // duration of a break
-
-    private final Random randgen = new Random();
+    private final Random randgen;
     private final Store store; // store in which the assistant works
+    private final int id;      // identifier of the assistant in the journal
 
-    private Queue<Item> carriedItems; // items carried by the assistant 
-    private int lastTick; 
+    private final Histogram itemsPerTrip; // number of items taken from the delivery box at each trip
+    private final LongAdder breakTicks;   // number of ticks spent on break
+    private final LongAdder walkTicks;    // number of ticks spent walking
+    private final LongAdder savedTicks;   // walking ticks saved by planning the routes of the trips
 
-    public Assistant(Store store) {
-        String configFile = configFilename();
-        Properties config = loadConfigFile(configFile);
+    private final StoreLayout.Router router;         // orders the visits of each trip
+    private int position = StoreLayout.DELIVERY_AREA; // place of the store the assistant is at
+
+    private final Load carriedItems = new Load(); // items carried by the assistant 
+    private final int[] carriedBefore = new int[Category.values().length]; // per category, before taking items
+    private final int[] plannedLoad   = new int[Category.values().length]; // per category, items planned to take
+    private int lastTick; // last tick the assistant rolled for a break at
+    private volatile boolean retired; // the assistant stops working once back to the delivery area
 
+    private EventScheduler scheduler; // only set when the store runs in events mode
+
+    public Assistant(Store store) {
         this.store   = store;
-        carriedItems = new LinkedList<>();
+        randgen      = new Random(store.newSeed());
+        id           = store.newActorId();
+        itemsPerTrip = store.metrics.histogram("assistant.items_per_trip");
+        breakTicks   = store.metrics.counter("assistant.break_ticks");
+        walkTicks    = store.metrics.counter("assistant.walk_ticks");
+        savedTicks   = store.metrics.counter("assistant.routing_saved_ticks");
+        router       = store.layout.newRouter();
+
+        configure(store.assistantSettings);
+
+        // when the store is restored from a snapshot, we carry the items
+        // that the assistant was carrying when the snapshot was taken
+        Load restoredLoad = store.restoredLoad();
+        if (restoredLoad != null) {
+            carriedItems.add(restoredLoad);
+            for (Category category : restoredLoad.route()) {
+                store.inFlight.addAndGet(category.ordinal(), restoredLoad.items(category));
+            }
+        }
+    }
+
+    /* Parameters of the assistants, parsed once per store from their config file
+     * and shared by all of them, parsed again by the store when the file changes.
+     */
+    public static final class Settings {
+        public static final String FILE = "config/Assistant.config";
+
+        private final int maxItems, maxSections, breakInterval, breakTime;
+
+        public Settings(Properties overrides) {
+            Properties config = loadConfigFile(FILE, overrides);
 
-        MAX_ITEMS      = Integer.parseInt(config.getProperty("MAX_CARRIED_ITEMS"));
-        MAX_SECTIONS   = Integer.parseInt(config.getProperty("MAX_CARRIED_SECTIONS"));
-        BREAK_INTERVAL = Integer.parseInt(config.getProperty("BREAK_INTERVAL"));
-        BREAK_TIME     = Integer.parseInt(config.getProperty("BREAK_TIME"));
+            maxItems      = Config.getInt(config, "MAX_CARRIED_ITEMS");
+            maxSections   = Config.getInt(config, "MAX_CARRIED_SECTIONS");
+            breakInterval = Config.getInt(config, "BREAK_INTERVAL");
+            breakTime     = Config.getInt(config, "BREAK_TIME");
+        }
     }
 
+    /* Apply the parameters of the assistants, again when their config file changed. */
+    public void configure(Settings settings) {
+        MAX_ITEMS      = settings.maxItems;
+        MAX_SECTIONS   = settings.maxSections;
+        BREAK_INTERVAL = settings.breakInterval;
+        BREAK_TIME     = settings.breakTime;
+    }
+
+    /* Make the assistant stop working once it is done with its current trip. */
+    public void retire() { retired = true; }
+
+    public boolean isRetired() { return retired; }
+
+    /* Stop working, if retired and not carrying items. */
+    private boolean leaves() {
+        if (!retired || isCarryingItems()) { return false; }
+        log("stopped working", store.ticks);
+        store.leave(this);
+        return true;
+    }
+
+    /* Copy of the items carried by the assistant, for snapshots. */
+    public Load carriedItems() { return carriedItems.copy(); }
+
     private boolean canCarryMoreItems() { return carriedItems.size() < MAX_ITEMS; }
 
     private boolean isCarryingItems() { return !carriedItems.isEmpty(); }
 
-    private boolean wantsToTakeBreak() { return randgen.nextInt(BREAK_INTERVAL) == 0; }
+    /* Whether the assistant was due a break in the ticks since it last looked, walking or
+     * waiting for work: one draw for all of them, so that threads and events modes take
+     * the same breaks whether they come back at every tick or once per trip. At most one
+     * break is taken, and its ticks are not rolled for again.
+     */
+    private boolean wantsToTakeBreak() {
+        int elapsed = store.ticks - lastTick;
+        if (elapsed <= 0) { return false; } // still on break, or already looked at this tick
+
+        lastTick = store.ticks;
+        double noBreak = Math.pow(1 - 1.0 / BREAK_INTERVAL, elapsed); // P("no break in any of these ticks")
+        if (randgen.nextDouble() < noBreak) { return false; }
+
+        lastTick += BREAK_TIME;
+        return true;
+    }
+
+    /* Number of ticks to walk to place "place", one more per item carried to a section. */
+    private int walkTo(int place) {
+        int ticks = store.layout.distance(position, place) + (place == StoreLayout.DELIVERY_AREA ? 0 : carriedItems.size());
+        walkTicks.add(ticks);
+        position = place;
+        return ticks;
+    }
 
     /* Sleep the required amount of time to go to section "section". */
     private void walkToSection(Section section) {
-        log("is walking to section " + section.category + "...", store.ticks);
-        sleep(store.TICK_TIME * (TIME_TO_SECTION + carriedItems.size()));
+        log("is walking to section {}...", section.category, store.ticks);
+        sleep(store.TICK_TIME * walkTo(section.category.ordinal()));
     }
 
     /* Sleep the required amount of time to go back to delivery area. */
     private void walkToDeliveryArea() {
         log("is walking back to delivery area...", store.ticks);
-        sleep(store.TICK_TIME * TIME_TO_DELIVERY_AREA);
+        sleep(store.TICK_TIME * walkTo(StoreLayout.DELIVERY_AREA));
+        store.record(Journal.Event.RETURN, null, id, 0);
     }
 
-    /* True if there is at least one customer waiting in some section. */
-    private boolean customersWaiting() {
-        for (Category category : Category.values()) {
-            if (store.sections.get(category).waitingCustomers > 0) { 
-                return true; 
-            }
-        }
-        return false;
+    /* Order the visits of the trip so that it takes the least walking time. */
+    private void planRoute() {
+        if (!router.optimizes()) { return; }
+        int asTaken = router.tripTime(carriedItems, position);
+        router.plan(carriedItems, position);
+        savedTicks.add(asTaken - router.tripTime(carriedItems, position));
     }
 
-    /* Returns a set containing all the empty sections. */
-    private Set<Category> sectionsWith0Items() {
-        Set<Category> result = new HashSet<>();
-
-        for (Category category : Category.values()) {
-            if (store.deliveryBox.numberOfItems(category) == 0) {
-                result.add(category);
-            }
-        }
-        return result;
-    }
+    /* Take items from the delivery box if not empty. */
+    private void takeItemsFromDeliveryBox() {
+        // Check if there are items that need to be 
+        // put into sections, else do nothing
+        if (store.emptyDeliveryBox()) { return; }
 
-    /* Takes as much items as possible of category "category",
-     * returns the number of items taken. 
-     */
-    private int takeItems(Category category) {
-        int items = 0; // number of items taken 
-
-        // take items from delivery box
-        for (Item item : store.deliveryBox.getItems(category)) {
-            // if we can't carry more items, we stop taking them
-            if (carriedItems.size() == MAX_ITEMS) { break; }
-            carriedItems.add(item);
-            items++;
-        }
+        log("saw that delivery box is not empty", store.ticks);
 
-        // remove the items from the delivery box
-        for (int i = 0; i < items; i++) {
-             store.deliveryBox.removeItem(category); 
+        for (Category category : Category.values()) {
+            carriedBefore[category.ordinal()] = carriedItems.items(category);
         }
 
-        log("took " + items + " items from section " + category, store.ticks);
-
-        return items;
-    }
-
-    /* Take items from the delivery box if not empty. */
-    private void takeItemsFromDeliveryBox() {
-
-        // ensuring no two assistants can 
-        // take items from the box at the same time
-        store.deliveryBox.requestAccess();
+        // planned before the move, the sections may be read through their access
+        int maxItems = MAX_ITEMS - carriedItems.size(), maxSections = MAX_SECTIONS;
+        Category[] order = store.restockStrategy.plan(store, maxItems, maxSections, plannedLoad);
 
+        int items;
+        store.beginItemsMove();
         try {
-            // Check if there are items that need to be 
-            // put into sections, else do nothing
-            if (store.emptyDeliveryBox()) { return; }
-
-            log("saw that delivery box is not empty", store.ticks);
-
-            int items    = 0; // number of items taken
-            int sections = 0; // number of different sections taken
-
-            while (sections < MAX_SECTIONS && !store.emptyDeliveryBox() && 
-                    canCarryMoreItems()) {
-
-                // to optimize the process, we first take the items from
-                // the section where there are the most customers waiting,
-                // if no customer is waiting, we take the items from the sections
-                // of which there are the most items in the delivery box
-
-                Category category = null; // the category from which we will select the items
-
-                if (customersWaiting()) { // if there are customers waiting we prioritize items from these sections
-                    int max = 0;
-
-                    Set<Category> zeroItems = sectionsWith0Items();
-
-                    // selecting the category that has the most customers waiting in
-                    // AND that the delivery box contains items
-                    for (Category cat : Category.values()) {
-                        int customers = store.sections.get(cat).waitingCustomers;
-                        if (customers > max && !zeroItems.contains(cat)) { 
-                            max = customers; category = cat; 
-                        }
-                    }
-
-                    // it is possible that between the moment we checked if there 
-                    // was at least one customer waiting and now, an assistant filled the section
-                    // and thus there are no customers waiting anymore, in this case we just go to the
-                    // second part of if statement [if (category == null)]
-
-                    // -> also, it is possible that while the assistant will be walking
-                    // to the section (where the customer is waiting), an assistant fills the 
-                    // section and therefore the customer leaves, in this case it is not 
-                    // optimal -> but it doesnt break anything 
-
-                    if (category != null) {
-                        log("saw that there are customers waiting in " + category, store.ticks);
-                    }
-                } 
-
-                // if (there are 0 customers waiting) || (no items to take for these sections)
-                if (category == null) {
-                    int max = 0;
-
-                    // selecting the category that has the most items
-                    for (Category cat : Category.values()) {
-                        int nItems = store.deliveryBox.numberOfItems(cat);
-                        if (nItems > max) { max = nItems; category = cat; }
-                    }
+            items = store.restockStrategy.takeItems(store, order, plannedLoad, maxItems, maxSections, carriedItems);
+
+            // letting the planner know what we are carrying to the sections,
+            // within the move so that the items are never seen in two places
+            for (Category category : Category.values()) {
+                int taken = carriedItems.items(category) - carriedBefore[category.ordinal()];
+                if (taken > 0) {
+                    store.inFlight.addAndGet(category.ordinal(), taken);
+                    store.record(Journal.Event.TAKE, category, id, taken);
                 }
-
-                int itemsTaken = takeItems(category);
-                items += itemsTaken;
-                store.itemsInBox -= itemsTaken; // update the number of items in the delivery box
-                sections++;
             }
-            log("took " + items + " items from delivery box (current number of carried items: " + carriedItems.size() + ")", store.ticks);
 
-        } finally { store.deliveryBox.freeAccess(); } 
-        // finally we let other assistants access the delivery box
+            // reordered within the move too, snapshots copy the load
+            if (items > 0) { planRoute(); }
+        } finally { store.endItemsMove(); }
+
+        if (items > 0) { itemsPerTrip.record(items); }
+        log("took {} items from delivery box (current number of carried items: {})", items, carriedItems.size(), store.ticks);
     }
 
-    /* Add items to a section while the peek item of the stack
-     * is of the same category than the one of the section.
-     */
+    /* Add the carried items of the category of the section to the section. */
     private void addItemsToSection(Section section) {
         // lock ensuring that no two assistants can put items in a section
         // at the same time, and no customer can buy at the same time
         section.requestAccess(); 
-        log("starts adding items to section " + section.category + "...", store.ticks);
+        log("starts adding items to section {}...", section.category, store.ticks);
 
         try {
             int addedItems = 0; // to keep track of the number of items we added
 
-            while (isCarryingItems() && 
-                    carriedItems.peek().getCategory() == section.category) {
+            while (carriedItems.items(section.category) > 0) {
 
-                Item peekItem = carriedItems.poll(); // remove the item from the assistant queue of items
-                section.addItem(peekItem); // add the item to the section
+                store.beginItemsMove();
+                try {
+                    carriedItems.remove(section.category, 1); // remove the item from the assistant load
+                    section.addItem(); // add the item to the section
+                    store.inFlight.decrementAndGet(section.category.ordinal());
+                } finally { store.endItemsMove(); }
+                store.record(Journal.Event.RESTOCK, section.category, id, 1);
                 addedItems++;
 
-                log("added 1 item to section " + section.category, store.ticks);
+                log("added 1 item to section {}", section.category, store.ticks);
                 sleep(store.TICK_TIME); // it takes 1 tick to add an item to a section 
             }
 
-            log("finished adding " + addedItems + " items to section " + section.category, store.ticks);
+            log("finished adding {} items to section {}", addedItems, section.category, store.ticks);
 
         } finally { section.freeAccess(); }
         // finally we let other actors access the section
@@ -205,7 +219,7 @@ public class Assistant extends Util implements Runnable  {
     private void putCarriedItemsInSections() {
         // we know it will visit at most "MAX_CARRIED_SECTIONS" sections
         while (isCarryingItems()) {
-            Category category = carriedItems.peek().getCategory(); // checking in what section we need to go
+            Category category = carriedItems.next(); // checking in what section we need to go
             Section section   = store.sections.get(category); // getting the section in which we need to go
 
             walkToSection(section);
@@ -214,21 +228,97 @@ public class Assistant extends Util implements Runnable  {
         }
     }
 
+    /* Events mode: schedule the first step of the assistant. */
+    public void simulate(EventScheduler scheduler) {
+        this.scheduler = scheduler;
+        lastTick = store.ticks;
+        log("assistant started", store.ticks);
+        scheduler.schedule(0, this::step);
+    }
+
+    /* Events mode: what the assistant does at the beginning of each tick,
+     * equivalent to one iteration of the loop in "run".
+     */
+    private void step() {
+        if (leaves()) { return; }
+
+        if (wantsToTakeBreak()) {
+            log("is taking a break...", store.ticks);
+            breakTicks.add(BREAK_TIME);
+            store.record(Journal.Event.BREAK, null, id, BREAK_TIME);
+            scheduler.schedule(BREAK_TIME, this::work);
+        } else { work(); }
+    }
+
+    /* Events mode: take items from the delivery box and start a trip. */
+    private void work() {
+        if (canCarryMoreItems()) { 
+            takeItemsFromDeliveryBox(); 
+        }
+
+        if (isCarryingItems()) { deliverToNextSection(); }
+        else { store.dispatcher.park(scheduler, this::step); } // nothing to do until the next notification
+    }
+
+    /* Events mode: walk to the section of the next carried item, or back
+     * to the delivery area once there are no more items to put in sections.
+     */
+    private void deliverToNextSection() {
+        if (!isCarryingItems()) {
+            log("is walking back to delivery area...", store.ticks);
+            scheduler.schedule(walkTo(StoreLayout.DELIVERY_AREA), () -> {
+                store.record(Journal.Event.RETURN, null, id, 0);
+                step();
+            });
+            return;
+        }
+
+        Section section = store.sections.get(carriedItems.next());
+        log("is walking to section {}...", section.category, store.ticks);
+        scheduler.schedule(walkTo(section.category.ordinal()), () -> arriveAtSection(section));
+    }
+
+    /* Events mode: it takes 1 tick to add an item to a section, so the
+     * items become available once the assistant is done adding them.
+     */
+    private void arriveAtSection(Section section) {
+        final int addedItems = carriedItems.items(section.category); // carried items belonging to this section
+
+        log("starts adding items to section {}...", section.category, store.ticks);
+
+        scheduler.schedule(addedItems, () -> {
+            section.requestAccess();
+            store.beginItemsMove();
+            try {
+                carriedItems.remove(section.category, addedItems);
+                section.addItems(addedItems);
+                store.inFlight.addAndGet(section.category.ordinal(), -addedItems);
+            } finally { store.endItemsMove(); section.freeAccess(); }
+            store.record(Journal.Event.RESTOCK, section.category, id, addedItems);
+            log("finished adding {} items to section {}", addedItems, section.category, store.ticks);
+            deliverToNextSection();
+        });
+    }
+
     @Override
     public void run() {
+        lastTick = store.ticks;
         log("assistant started", store.ticks);
 
         for (;;) {
+            if (leaves()) { return; }
 
-            if (lastTick != store.ticks) {
-                lastTick = store.ticks;
-
-                if (wantsToTakeBreak()) {
-                    log("is taking a break...", store.ticks);
-                    sleep(store.TICK_TIME * BREAK_TIME);
-                }
+            if (wantsToTakeBreak()) {
+                log("is taking a break...", store.ticks);
+                breakTicks.add(BREAK_TIME);
+                store.record(Journal.Event.BREAK, null, id, BREAK_TIME);
+                sleep(store.TICK_TIME * BREAK_TIME);
             }
 
+            // read before looking at the box, so that a delivery
+            // arriving right after we looked wakes us up
+            long seen = store.dispatcher.notifications();
+
             if (canCarryMoreItems()) { 
                 takeItemsFromDeliveryBox(); 
             }
@@ -236,9 +326,10 @@ public class Assistant extends Util implements Runnable  {
             if (isCarryingItems()) {
                 putCarriedItemsInSections();
                 walkToDeliveryArea();
+            } else {
+                // nothing to do, we wait for a delivery or a customer to wait
+                store.dispatcher.await(seen);
             }
-
-            sleep(1);
         }
     }
 }
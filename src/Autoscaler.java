@@ -0,0 +1,148 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Hires and retires assistants while the store runs (AUTOSCALE=true in the
+ * store config), between MIN_ASSISTANTS and MAX_ASSISTANTS. Every
+ * SCALE_INTERVAL ticks, it looks at the means over the interval of the
+ * items in the delivery box, of the customers waiting and of the idle
+ * assistants: one assistant is hired if the box holds more than UP_BACKLOG
+ * items per assistant, or if more than UP_WAITING customers wait while at
+ * most DOWN_IDLE of the assistants are idle, one is retired if the box holds
+ * less than DOWN_BACKLOG items per assistant and more than DOWN_IDLE of the
+ * assistants are idle (the customers then wait for a delivery). The
+ * thresholds leave a gap between hiring and retiring, and no change is made
+ * for COOLDOWN ticks after the last one, so that the workforce does not
+ * oscillate.
+ * For each number of assistants, it keeps the ticks spent with that many,
+ * the items sold and the idle assistant ticks, giving how much throughput
+ * each extra assistant adds against how idle they are. This report is
+ * written as CSV to REPORT_FILE, if set, after each interval.
+ */
+public class Autoscaler extends Util {
+    private final int MIN_ASSISTANTS;   // fewest assistants working
+    private final int MAX_ASSISTANTS;   // most assistants working
+    private final int SCALE_INTERVAL;   // number of ticks between two decisions
+    private final int COOLDOWN;         // number of ticks without any change after a change
+    private final double UP_BACKLOG;    // items in the box per assistant above which one is hired
+    private final double DOWN_BACKLOG;  // items in the box per assistant below which one can be retired
+    private final double UP_WAITING;    // customers waiting above which one is hired
+    private final double DOWN_IDLE;     // share of idle assistants above which one can be retired
+    private final String REPORT_FILE;   // file the report is written to, none if empty
+
+    private final Store store;
+
+    private long backlogSum, waitingSum, idleSum; // sums of the samples of the current interval
+    private int samples;                          // number of samples of the current interval
+    private int lastChange;                       // tick of the last change
+
+    private final long[] ticksAt;     // per number of assistants: ticks spent with that many
+    private final long[] soldAt;      // items sold meanwhile
+    private final long[] idleTicksAt; // idle assistant ticks meanwhile
+    private long soldBefore;          // items sold at the previous tick
+
+    private final LongAdder hired, retired;
+
+    public Autoscaler(Store store) {
+        Properties config = loadConfigFile(configFilename(), store.overrides);
+
+        this.store = store;
+
+        MIN_ASSISTANTS = Config.getInt(config, "MIN_ASSISTANTS");
+        MAX_ASSISTANTS = Config.getInt(config, "MAX_ASSISTANTS");
+        SCALE_INTERVAL = Config.getInt(config, "SCALE_INTERVAL");
+        COOLDOWN       = Config.getInt(config, "COOLDOWN");
+        UP_BACKLOG     = Double.parseDouble(config.getProperty("UP_BACKLOG"));
+        DOWN_BACKLOG   = Double.parseDouble(config.getProperty("DOWN_BACKLOG"));
+        UP_WAITING     = Double.parseDouble(config.getProperty("UP_WAITING"));
+        DOWN_IDLE      = Double.parseDouble(config.getProperty("DOWN_IDLE"));
+        REPORT_FILE    = config.getProperty("REPORT_FILE", "");
+
+        if (MIN_ASSISTANTS < 1 || MAX_ASSISTANTS < MIN_ASSISTANTS) {
+            throw new IllegalArgumentException("expected 1 <= MIN_ASSISTANTS <= MAX_ASSISTANTS");
+        }
+        if (DOWN_BACKLOG >= UP_BACKLOG) { throw new IllegalArgumentException("DOWN_BACKLOG must be below UP_BACKLOG"); }
+
+        ticksAt     = new long[MAX_ASSISTANTS + 1];
+        soldAt      = new long[MAX_ASSISTANTS + 1];
+        idleTicksAt = new long[MAX_ASSISTANTS + 1];
+        hired       = store.metrics.counter("autoscaler.hired");
+        retired     = store.metrics.counter("autoscaler.retired");
+    }
+
+    /* Number of assistants the store starts with, ASSISTANTS within the bounds. */
+    public int initialAssistants(int assistants) { return Math.max(MIN_ASSISTANTS, Math.min(MAX_ASSISTANTS, assistants)); }
+
+    /* Called by the store at each tick, returns the number of assistants
+     * that should be working, "assistants" being the number working.
+     */
+    public int tick(int assistants) {
+        long sold = store.itemsSold.sum();
+        int idle  = Math.min(store.dispatcher.idle(), assistants); // retired assistants may not have left yet
+        int level = Math.min(assistants, MAX_ASSISTANTS);
+        ticksAt[level]++;
+        soldAt[level]      += sold - soldBefore;
+        idleTicksAt[level] += idle;
+        soldBefore = sold;
+
+        backlogSum += store.itemsInBox();
+        waitingSum += store.demand.total();
+        idleSum    += idle;
+        if (++samples < SCALE_INTERVAL) { return assistants; }
+
+        double backlog = (double) backlogSum / samples / assistants; // per assistant
+        double waiting = (double) waitingSum / samples;
+        double idleShare = (double) idleSum / samples / assistants;
+        backlogSum = waitingSum = idleSum = 0;
+        samples = 0;
+
+        if (!REPORT_FILE.isEmpty()) { writeReport(Paths.get(REPORT_FILE)); }
+        if (store.ticks - lastChange < COOLDOWN) { return assistants; }
+
+        int wanted = assistants;
+        // customers waiting while the assistants are idle wait for a delivery, not for an assistant
+        boolean busy = idleShare <= DOWN_IDLE;
+        if ((backlog > UP_BACKLOG || (waiting > UP_WAITING && busy)) && assistants < MAX_ASSISTANTS) {
+            wanted = assistants + 1;
+            hired.increment();
+        } else if (backlog < DOWN_BACKLOG && !busy && assistants > MIN_ASSISTANTS) {
+            wanted = assistants - 1;
+            retired.increment();
+        }
+
+        if (wanted != assistants) {
+            lastChange = store.ticks;
+            // logged as a store message, only formatted if it is printed
+            if (Logger.enabled(Logger.Level.INFO)) {
+                store.log(String.format(Locale.ROOT, "autoscaler: %d -> %d assistants (backlog %.1f per assistant, %.1f waiting, %.0f%% idle)\n",
+                                        assistants, wanted, backlog, waiting, 100 * idleShare), store.ticks);
+            }
+        }
+        return wanted;
+    }
+
+    /* For each number of assistants: the ticks spent with that many, the items sold
+     * per tick, the items per tick added by the last assistant, and the share of the
+     * assistants that were idle.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("assistants,ticks,sold_per_tick,marginal_sold_per_tick,idle_share\n");
+        double previous = Double.NaN; // items sold per tick with one assistant less
+        for (int n = 1; n <= MAX_ASSISTANTS; n++) {
+            if (ticksAt[n] == 0) { previous = Double.NaN; continue; }
+            double perTick = (double) soldAt[n] / ticksAt[n];
+            report.append(String.format(Locale.ROOT, "%d,%d,%.4f,%s,%.3f\n", n, ticksAt[n], perTick,
+                          Double.isNaN(previous) ? "" : String.format(Locale.ROOT, "%.4f", perTick - previous),
+                          (double) idleTicksAt[n] / ticksAt[n] / n));
+            previous = perTick;
+        }
+        return report.toString();
+    }
+
+    private void writeReport(Path file) {
+        try { writeAtomically(file, ByteBuffer.wrap(report().getBytes())); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Runs many independent, bounded simulations of the store in events mode,
+ * in parallel on all the cores, for every point of a grid of parameters
+ * and with REPLICAS seeded replicas per point. The grid is given in the
+ * config file by the parameters prefixed with "GRID_", for example
+ * "GRID_ASSISTANTS=1,2,4". Replica r of every point uses seed SEED + r,
+ * so that the points are compared on the same random scenarios.
+ * The aggregated outcomes of each point are printed as CSV.
+ */
+public class BatchRunner extends Util {
+    private static final String GRID_PREFIX = "GRID_";
+
+    private final int REPLICAS; // number of replicas of each point of the grid
+    private final int TICKS;    // duration of each simulation
+    private final long SEED;    // seed of the first replica
+    private final int THREADS;  // number of simulations run in parallel, all the cores if 0
+
+    private final List<String> parameters = new ArrayList<>();   // names of the parameters of the grid
+    private final List<String[]> values   = new ArrayList<>();   // values taken by each parameter
+
+    /* Outcome of one simulation. */
+    private static final class Outcome {
+        final Histogram waitTicks;
+        final long itemsSold, stockouts;
+        final double meanBacklog;
+        final long maxBacklog;
+
+        Outcome(Store store) {
+            waitTicks   = store.metrics.histogram("customer.wait_ticks");
+            itemsSold   = store.itemsSold.sum();
+            stockouts   = store.metrics.counter("customer.stockouts").sum();
+            meanBacklog = store.metrics.histogram("box.backlog").mean();
+            maxBacklog  = store.metrics.histogram("box.backlog").max();
+        }
+    }
+
+    public BatchRunner() {
+        Properties config = loadConfigFile(configFilename());
+
+        REPLICAS = Integer.parseInt(config.getProperty("REPLICAS"));
+        TICKS    = Integer.parseInt(config.getProperty("TICKS"));
+        SEED     = Long.parseLong(config.getProperty("SEED"));
+        THREADS  = Integer.parseInt(config.getProperty("THREADS", "0"));
+
+        for (String key : new TreeSet<>(config.stringPropertyNames())) {
+            if (key.startsWith(GRID_PREFIX)) {
+                parameters.add(key.substring(GRID_PREFIX.length()));
+                values.add(config.getProperty(key).split(","));
+            }
+        }
+    }
+
+    /* All the points of the grid, each point giving one value to every parameter. */
+    private List<Properties> grid() {
+        List<Properties> points = new ArrayList<>();
+        points.add(new Properties());
+
+        for (int i = 0; i < parameters.size(); i++) {
+            List<Properties> extended = new ArrayList<>();
+            for (Properties point : points) {
+                for (String value : values.get(i)) {
+                    Properties copy = new Properties();
+                    copy.putAll(point);
+                    copy.setProperty(parameters.get(i), value.trim());
+                    extended.add(copy);
+                }
+            }
+            points = extended;
+        }
+        return points;
+    }
+
+    /* Run one replica of a point of the grid. */
+    private Outcome simulate(Properties point, int replica) {
+        Store store = new Store(Store.isolatedRun(point, SEED + replica));
+        store.simulate(TICKS);
+        return new Outcome(store);
+    }
+
+    public void run() throws InterruptedException, ExecutionException {
+        List<Properties> points = grid();
+        int threads = THREADS > 0 ? THREADS : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        // all the simulations are independent, they are all submitted at once
+        List<List<ForkJoinTask<Outcome>>> tasks = new ArrayList<>();
+        for (Properties point : points) {
+            List<ForkJoinTask<Outcome>> replicas = new ArrayList<>();
+            for (int r = 0; r < REPLICAS; r++) {
+                final int replica = r;
+                replicas.add(pool.submit(() -> simulate(point, replica)));
+            }
+            tasks.add(replicas);
+        }
+
+        System.out.println(String.join(",", parameters) + (parameters.isEmpty() ? "" : ",")
+                           + "replicas,items_sold,stockouts,mean_wait,p99_wait,max_wait,mean_backlog,max_backlog");
+
+        for (int p = 0; p < points.size(); p++) {
+            Histogram waitTicks = new Histogram(); // waits of all the replicas of the point
+            double itemsSold = 0, stockouts = 0, meanBacklog = 0, maxBacklog = 0;
+
+            for (ForkJoinTask<Outcome> task : tasks.get(p)) {
+                Outcome outcome = task.get();
+                waitTicks.merge(outcome.waitTicks);
+                itemsSold   += outcome.itemsSold;
+                stockouts   += outcome.stockouts;
+                meanBacklog += outcome.meanBacklog;
+                maxBacklog  += outcome.maxBacklog;
+            }
+
+            StringBuilder row = new StringBuilder();
+            for (String parameter : parameters) { row.append(points.get(p).getProperty(parameter)).append(','); }
+            row.append(String.format(Locale.ROOT, "%d,%.1f,%.1f,%.2f,%d,%d,%.2f,%.1f", REPLICAS,
+                       itemsSold / REPLICAS, stockouts / REPLICAS, waitTicks.mean(), waitTicks.percentile(0.99),
+                       waitTicks.max(), meanBacklog / REPLICAS, maxBacklog / REPLICAS));
+            System.out.println(row);
+        }
+
+        pool.shutdown();
+    }
+}
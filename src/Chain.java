@@ -0,0 +1,140 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/* A chain of STORES stores, each simulated in events mode for TICKS ticks 
+ * on its own executor, as an independent shard: the stores share no lock
+ * and their clocks are not synchronized. They only exchange surplus items
+ * through message queues: every TRANSFER_INTERVAL ticks, a store sends the 
+ * items of its delivery box beyond SURPLUS items per category to the store
+ * of the chain with the most customers waiting for that category, if any.
+ */
+public class Chain extends Util {
+    private final int STORES;            // number of stores in the chain
+    private final int TICKS;             // duration of the simulation of each store
+    private final long SEED;             // seed of the first store, random if 0
+    private final int TRANSFER_INTERVAL; // number of ticks between two shipments of surplus items
+    private final int SURPLUS;           // items of a category a store keeps in its box before sending them
+
+    private final Store[] stores;
+    private final List<Queue<int[]>> inboxes = new ArrayList<>(); // items sent to each store, per category
+
+    public Chain() {
+        Properties config = loadConfigFile(configFilename());
+
+        STORES            = Integer.parseInt(config.getProperty("STORES"));
+        TICKS             = Integer.parseInt(config.getProperty("TICKS"));
+        SEED              = Long.parseLong(config.getProperty("SEED", "0"));
+        TRANSFER_INTERVAL = Integer.parseInt(config.getProperty("TRANSFER_INTERVAL"));
+        SURPLUS           = Integer.parseInt(config.getProperty("SURPLUS"));
+
+        stores = new Store[STORES];
+        for (int i = 0; i < STORES; i++) {
+            stores[i] = new Store(Store.isolatedRun(new Properties(), SEED == 0 ? 0 : SEED + i));
+            stores[i].joinChain(this, i);
+            inboxes.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /* Called by store "shard" at each tick, from its own thread: receive the
+     * items sent by the other stores, and periodically send the surplus ones.
+     */
+    public void exchange(int shard) {
+        Store store = stores[shard];
+
+        int[] received;
+        while ((received = inboxes.get(shard).poll()) != null) {
+            store.beginItemsMove();
+            try {
+                store.deliveryBox.addItems(received);
+                store.itemsReceived.add(Arrays.stream(received).sum());
+            } finally { store.endItemsMove(); }
+            store.metrics.counter("chain.items_received").add(Arrays.stream(received).sum());
+            store.dispatcher.post();
+        }
+
+        if (store.ticks % TRANSFER_INTERVAL != 0) { return; }
+
+        for (Category category : Category.values()) {
+            int surplus = store.deliveryBox.numberOfItems(category) - SURPLUS;
+            if (surplus <= 0) { continue; }
+
+            // the store needing these items the most, only read from the
+            // waiting counters of the other stores, no lock is involved
+            int target = -1, maxWaiting = 0;
+            for (int i = 0; i < STORES; i++) {
+                int waiting = stores[i].demand.waiting(category);
+                if (i != shard && waiting > maxWaiting) { maxWaiting = waiting; target = i; }
+            }
+            if (target == -1) { continue; }
+
+            int[] items = new int[Category.values().length];
+            store.beginItemsMove();
+            try {
+                items[category.ordinal()] = store.deliveryBox.claim(category, surplus);
+                store.itemsReceived.add(-items[category.ordinal()]);
+            } finally { store.endItemsMove(); }
+            store.metrics.counter("chain.items_sent").add(items[category.ordinal()]);
+            inboxes.get(target).add(items);
+        }
+    }
+
+    /* Simulate all the stores, each on its own executor, returns the time it took in seconds. */
+    public double simulate() throws InterruptedException, ExecutionException {
+        List<ExecutorService> executors = new ArrayList<>();
+        List<Future<?>> runs = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try {
+            for (Store store : stores) {
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                executors.add(executor);
+                runs.add(executor.submit(() -> store.simulate(TICKS)));
+            }
+            for (Future<?> run : runs) { run.get(); }
+            return (System.nanoTime() - start) / 1e9;
+        } finally {
+            // the other shards are stopped too if one failed
+            for (ExecutorService executor : executors) { executor.shutdownNow(); }
+        }
+    }
+
+    /* The stores of the chain, once simulated. */
+    public Store[] stores() { return stores; }
+
+    /* Number of items sent by all the stores to the others. */
+    public long itemsSent() { return Arrays.stream(stores).mapToLong(s -> s.metrics.counter("chain.items_sent").sum()).sum(); }
+
+    /* Number of items received by all the stores from the others. */
+    public long itemsReceived() { return Arrays.stream(stores).mapToLong(s -> s.metrics.counter("chain.items_received").sum()).sum(); }
+
+    public void run() throws InterruptedException, ExecutionException {
+        double seconds = simulate();
+
+        // per store, then chain-wide statistics
+        Histogram chainWaits = new Histogram();
+        long sold = 0, stockouts = 0, sent = 0, received = 0, boxed = 0;
+
+        System.out.println("store,items_sold,stockouts,mean_wait,p99_wait,items_sent,items_received,items_in_box");
+        for (int i = 0; i < STORES; i++) {
+            Store store = stores[i];
+            Histogram waits = store.metrics.histogram("customer.wait_ticks");
+            chainWaits.merge(waits);
+
+            long storeSold      = store.itemsSold.sum();
+            long storeStockouts = store.metrics.counter("customer.stockouts").sum();
+            long storeSent      = store.metrics.counter("chain.items_sent").sum();
+            long storeReceived  = store.metrics.counter("chain.items_received").sum();
+
+            sold += storeSold; stockouts += storeStockouts; sent += storeSent; 
+            received += storeReceived; boxed += store.itemsInBox();
+
+            System.out.println(String.format(Locale.ROOT, "%d,%d,%d,%.2f,%d,%d,%d,%d", i, storeSold, storeStockouts,
+                               waits.mean(), waits.percentile(0.99), storeSent, storeReceived, store.itemsInBox()));
+        }
+        System.out.println(String.format(Locale.ROOT, "chain,%d,%d,%.2f,%d,%d,%d,%d", sold, stockouts,
+                           chainWaits.mean(), chainWaits.percentile(0.99), sent, received, boxed));
+        System.out.println(String.format(Locale.ROOT, "# %d stores, %d ticks each, %.2f s, %d items still in transit",
+                           STORES, TICKS, seconds, sent - received));
+    }
+}
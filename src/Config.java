@@ -0,0 +1,94 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Configuration files, each read once and shared by all the objects
+ * using it, instead of being read again by each actor. A file can be
+ * watched: a background thread is told by a WatchService when the
+ * config directory changes, reads again the files that changed and
+ * calls their listeners, so that a running store can apply the changes.
+ */
+public final class Config {
+    private static final Map<String, Properties> files = new ConcurrentHashMap<>();    // cached content of each file
+    private static final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>(); // called when a file changes
+    private static final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    private static WatchService watcher; // created when the first file is watched
+
+    private Config() {}
+
+    private static Properties read(String fileName) {
+        Properties properties  = new Properties();
+        try (InputStream input = new FileInputStream(fileName)) {
+            properties.load(input);
+        } catch (IOException e) { e.printStackTrace(); }
+        return properties;
+    }
+
+    /* Content of "fileName", read from the disk the first time only. The
+     * returned properties are shared, they must not be modified.
+     */
+    public static Properties get(String fileName) { return files.computeIfAbsent(fileName, Config::read); }
+
+    /* Content of "fileName", with the parameters given in "overrides" replaced. */
+    public static Properties get(String fileName, Properties overrides) {
+        Properties properties = new Properties();
+        properties.putAll(get(fileName));
+        properties.putAll(overrides);
+        return properties;
+    }
+
+    /* Integer value of "key", which must be set. */
+    public static int getInt(Properties config, String key) { return Integer.parseInt(config.getProperty(key).trim()); }
+
+
+    /* Call "listener" each time "fileName" changes on the disk, from the watcher thread. */
+    public static synchronized void watch(String fileName, Runnable listener) {
+        listeners.computeIfAbsent(fileName, f -> new CopyOnWriteArrayList<>()).add(listener);
+
+        Path directory = Paths.get(fileName).toAbsolutePath().getParent();
+        if (!watchedDirectories.add(directory)) { return; }
+
+        try {
+            if (watcher == null) {
+                watcher = FileSystems.getDefault().newWatchService();
+                Thread thread = new Thread(Config::watchLoop, "config-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    /* Read again the watched files that changed, and call their listeners. */
+    private static void watchLoop() {
+        for (;;) {
+            WatchKey key;
+            try { key = watcher.take(); }
+            catch (InterruptedException e) { return; }
+
+            Path directory = (Path) key.watchable();
+            Set<String> changed = new HashSet<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) { changed.addAll(listeners.keySet()); continue; }
+
+                Path file = directory.resolve((Path) event.context());
+                for (String fileName : listeners.keySet()) {
+                    try {
+                        if (Files.exists(file) && Files.isSameFile(file, Paths.get(fileName))) { changed.add(fileName); }
+                    } catch (IOException e) { /* the file was replaced meanwhile, the next event tells */ }
+                }
+            }
+            key.reset();
+
+            for (String fileName : changed) {
+                Properties properties = read(fileName);
+                if (properties.isEmpty()) { continue; } // being rewritten, the next event gives the content
+                if (properties.equals(files.put(fileName, properties))) { continue; } // saved without changes
+
+                for (Runnable listener : listeners.get(fileName)) { listener.run(); }
+            }
+        }
+    }
+}
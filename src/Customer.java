@@ -1,86 +1,232 @@
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class Customer extends Util implements Runnable {
     private static final int TIME_TO_BUY = 1;  // the time it takes for a customer to buy an item
-    private        final int BUY_INTERVAL; // (1 / BUY_INTERVAL) = P("customer buys an item at each tick")
+    private volatile int BUY_INTERVAL; // (1 / BUY_INTERVAL) = P("customer buys an item at each tick"), hot-reloaded
 
     private final Random randgen; // random number generator
+    private volatile Popularity popularity; // how the customer chooses the categories of the items bought
     private final Store store;    // the store in which the customer buys items
+    private final int id;         // identifier of the customer in the journal
+
+    private final Histogram waitTicks; // number of ticks waited before buying each item
+    private final LongAdder stockouts; // number of times the customer found an empty section
+    private final Histogram visitTicks; // duration of the visits, open system only
+    private final LongAdder abandoned;  // number of items the customers gave up waiting for, open system only
 
     private int lastTick; // to be able to log the current tick in messages
+    private final Section.Demand demand = new Section.Demand(); // place of the customer in the queue of a section
+    private volatile boolean retired; // the customer leaves the store after its current purchase
 
-    public Customer(Store store) {
-        String configFile = configFilename();
-        Properties config = loadConfigFile(configFile);
+    private EventScheduler scheduler; // only set when the store runs in events mode
 
+    private Runnable afterPurchase = this::step; // events mode: what the customer does after buying an item
+    private int itemsLeft;                  // open system: items the customer still wants to buy
+    private int enteredAt;                  // open system: tick the customer entered the store
+    private int patience;                   // open system: ticks waited for an item before giving up, 0 for ever
+    private Consumer<Customer> onLeave;     // open system: called when the customer leaves the store
+
+    public Customer(Store store) {
         this.store = store;
-        randgen    = new Random();
+        randgen    = new Random(store.newSeed());
+        id         = store.newActorId();
+        waitTicks  = store.metrics.histogram("customer.wait_ticks");
+        stockouts  = store.metrics.counter("customer.stockouts");
+        visitTicks = store.metrics.histogram("customer.visit_ticks");
+        abandoned  = store.metrics.counter("customer.abandoned");
+
+        configure(store.customerSettings);
+    }
+
+    /* Parameters of the customers, parsed once per store from their config file
+     * and shared by all of them, parsed again by the store when the file changes.
+     */
+    public static final class Settings {
+        public static final String FILE = "config/Customer.config";
+
+        private final int buyInterval;
+        private final Popularity.Model model;
+        private final double zipfExponent;
+        private final int dayLength;
+        private final double dayAmplitude;
+
+        public Settings(Properties overrides) {
+            Properties config = loadConfigFile(FILE, overrides);
+
+            buyInterval  = Config.getInt(config, "BUY_INTERVAL");
+            model        = Popularity.Model.valueOf(config.getProperty("POPULARITY", "UNIFORM"));
+            zipfExponent = Double.parseDouble(config.getProperty("ZIPF_EXPONENT", "1"));
+            dayLength    = Integer.parseInt(config.getProperty("DAY_LENGTH", "1000"));
+            dayAmplitude = Double.parseDouble(config.getProperty("DAY_AMPLITUDE", "0.8"));
+        }
+    }
 
-        BUY_INTERVAL = Integer.parseInt(config.getProperty("BUY_INTERVAL"));
+    /* Apply the parameters of the customers, again when their config file changed. */
+    public void configure(Settings settings) {
+        popularity   = new Popularity(settings.model, settings.zipfExponent, settings.dayLength, settings.dayAmplitude);
+        BUY_INTERVAL = settings.buyInterval;
     }
 
+    /* Make the customer leave the store after its current purchase. */
+    public void retire() { retired = true; }
+
+    public boolean isRetired() { return retired; }
+
     /* Buy an item from a randomly selected section. */
     private void buyItem(Category itemSection) {
         Section section = store.sections.get(itemSection); // the section we will buy an item from
-        boolean signaledWaiting = false; // so that we signal that we are waiting only once
-        int waitedTicks = 0; // number of ticks waited before the customer could buy the item
+        int startTick = store.ticks; // to compute the number of ticks waited before the customer could buy the item
+
+        // here we request the access, if there are no items that can be
+        // bought, "awaitItem" frees the access while waiting, allowing an
+        // assistant to fill the section, and we are woken up as soon as
+        // an item is reserved for us, after the customers queued before us
+        section.requestAccess();
+
+        try {
+            if (section.freeItems() == 0) {
+                stockouts.increment();
+                store.record(Journal.Event.WAIT, section.category, id, 0);
+                store.dispatcher.post(); // the assistants may have items for this section
+                log("is waiting for an item in section {}...", section.category, store.ticks);
+            }
+
+            if (!section.awaitItem(demand, store.ticks)) { return; } // the store is closing
+
+            // => there is an item for us in the section
+
+            log("is buying 1 item in section {}", section.category, store.ticks);
+            sleep(TIME_TO_BUY); 
+
+            store.beginItemsMove();
+            try {
+                section.removeItem(demand); // actually taking the item
+                store.itemsSold.increment();
+            } finally { store.endItemsMove(); }
+
+            waitTicks.record(store.ticks - startTick);
+            store.record(Journal.Event.BUY, section.category, id, store.ticks - startTick);
+            log("bought 1 item in section {}, waited ticks: {}", section.category, store.ticks - startTick, store.ticks);
 
-        for (;;) { // waiting while there are no items in section
+        } finally { section.freeAccess(); }
+        // finally we give the access back to the other threads
+    }
+
+    private boolean buysItem() { return randgen.nextInt(BUY_INTERVAL) == 0; }
+
+    /* Events mode: schedule the first step of the customer. */
+    public void simulate(EventScheduler scheduler) {
+        this.scheduler = scheduler;
+        log("customer started", store.ticks);
+        scheduler.schedule(0, this::step);
+    }
 
-            // here we request the access, and we check if there 
-            // are items that can be bought, if not, we free the 
-            // access, allowing an assistant to fill the section with items
-            section.requestAccess();
-            if (section.numberOfItems() > 0) { break; }
-            else { section.freeAccess(); }
+    /* Events mode: what the customer does at each tick, 
+     * equivalent to one iteration of the loop in "run".
+     */
+    private void step() {
+        if (retired) { store.leave(this); return; }
+
+        if (buysItem()) {
+            Category itemSection = popularity.choose(randgen, store.ticks);
+            log("decided to buy an item in {}", itemSection, store.ticks);
+            tryToBuy(store.sections.get(itemSection), 0);
+        } else { scheduler.schedule(1, this::step); }
+    }
 
+    /* Events mode: buy an item from "section" if there is a free one, else
+     * queue up and check at each tick whether an item was reserved for us,
+     * like "buyItem" does with sleeps.
+     */
+    private void tryToBuy(Section section, int waitedTicks) {
+        if (waitedTicks == 0 && section.freeItems() == 0) {
             // we signal that we are waiting in this section 
-            if (!signaledWaiting) {
-                signaledWaiting = true;
-                section.addWaitingCustomer();
-                log("is waiting for an item in section " + section.category + "...", store.ticks);
-            }
+            stockouts.increment();
+            store.record(Journal.Event.WAIT, section.category, id, 0);
+            section.addWaitingCustomer(demand, store.ticks);
+            store.dispatcher.post(); // the assistants may have items for this section
+            log("is waiting for an item in section {}...", section.category, store.ticks);
+        }
 
-            sleep(store.TICK_TIME);
-            waitedTicks++;
+        if (demand.isWaiting()) {
+            if (patience > 0 && waitedTicks >= patience) { // gives up this item
+                section.removeWaitingCustomer(demand);
+                abandoned.increment();
+                log("gave up waiting in section {}", section.category, store.ticks);
+                scheduler.schedule(1, afterPurchase);
+                return;
+            }
+            scheduler.schedule(1, () -> tryToBuy(section, waitedTicks + 1));
+            return;
         }
 
-        // => there is an item in the section
+        log("is buying 1 item in section {}", section.category, store.ticks);
+        store.beginItemsMove();
+        try {
+            section.removeItem(demand);
+            store.itemsSold.increment();
+        } finally { store.endItemsMove(); }
+        waitTicks.record(waitedTicks);
+        store.record(Journal.Event.BUY, section.category, id, waitedTicks);
+        log("bought 1 item in section {}, waited ticks: {}", section.category, waitedTicks, store.ticks);
+
+        scheduler.schedule(1, afterPurchase);
+    }
 
-        // we signal that we stopped waiting
-        if (signaledWaiting) { section.removeWaitingCustomer(); }
+    /* Events mode, open system: enter the store to buy "items" items, one per
+     * tick, waiting at most "patience" ticks for each (for ever if 0), then 
+     * leave the store, "onLeave" being called with the customer.
+     */
+    public void visit(EventScheduler scheduler, int items, int patience, Consumer<Customer> onLeave) {
+        this.scheduler = scheduler;
+        this.onLeave   = onLeave;
+        this.patience  = patience;
+        afterPurchase  = this::nextPurchase;
+        itemsLeft      = items;
+        enteredAt      = store.ticks;
+        log("entered the store to buy {} items", items, store.ticks);
+        nextPurchase();
+    }
 
-        log("is buying 1 item in section " + section.category, store.ticks);
-        sleep(TIME_TO_BUY); 
-        section.removeItem(); // actually taking the item
-        log("bought 1 item in section " + section.category + ", waited ticks: " + waitedTicks, store.ticks);
+    /* Events mode, open system: buy the next item, or leave once all were bought. */
+    private void nextPurchase() {
+        if (itemsLeft == 0) {
+            visitTicks.record(store.ticks - enteredAt);
+            log("left the store", store.ticks);
+            onLeave.accept(this);
+            return;
+        }
 
-        // at this point the access is not yet given back to the other threads
-        section.freeAccess();
+        itemsLeft--;
+        Category itemSection = popularity.choose(randgen, store.ticks);
+        log("decided to buy an item in {}", itemSection, store.ticks);
+        tryToBuy(store.sections.get(itemSection), 0);
     }
 
-    private boolean buysItem() { return randgen.nextInt(BUY_INTERVAL) == 0; }
-
     @Override
     public void run() {
         log("customer started", store.ticks);
 
         for (;;) {
+            if (retired) { log("left the store", store.ticks); store.leave(this); return; }
+
             if (lastTick != store.ticks) {
                 lastTick = store.ticks; // updating the tick number
 
                 // if the customer decides to buy an item 
                 if (buysItem()) {
-                    // selecting a random item category
-                    Category itemSection = Category.randomCategory(randgen);
+                    // selecting the item category
+                    Category itemSection = popularity.choose(randgen, store.ticks);
 
-                    log("decided to buy an item in " + itemSection, store.ticks);
+                    log("decided to buy an item in {}", itemSection, store.ticks);
 
                     buyItem(itemSection);
                 }
             }
 
-            sleep(1); // small pause between updates
+            store.awaitNextTick(lastTick);
         }
     }
 }
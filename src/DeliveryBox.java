@@ -1,23 +1,155 @@
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class DeliveryBox extends SharedResource {
-    private Map<Category, Queue<Item>> box; // the box where the items get delivered
+/* Box where the deliveries are put, striped by category: the items
+ * of each category are counted in their own stripe behind their own lock,
+ * so that assistants taking items of different categories, and the store
+ * receiving a delivery, do not all serialize on a single lock.
+ * The box can hold at most "capacity" items (no limit if 0), the room for
+ * a whole delivery being reserved at once on the total before the stripes
+ * are filled.
+ */
+public class DeliveryBox {
 
-    public Item removeItem(Category category) {
-        assert !box.get(category).isEmpty();
-        return box.get(category).remove();
+    /* The items of one category in the box. */
+    private static final class Stripe extends SharedResource {
+        private volatile int size; // so that it can be read without the lock
+
+        Stripe(LockStrategy strategy) { super(strategy); }
+    }
+
+    private final EnumMap<Category, Stripe> stripes;
+    private final AtomicInteger totalItems = new AtomicInteger(); // number of items in all the stripes, and reserved
+    private final int capacity; // maximum number of items in the box, no limit if 0
+
+    private final Object room = new Object(); // notified when items are taken, if trucks wait for room
+    private volatile int waitingForRoom;      // number of trucks waiting for room
+    private boolean closed;                   // set when the store stops, the trucks stop waiting for room
+
+    public DeliveryBox() { this(SharedResource.LockStrategy.FAIR, 0); }
+
+    public DeliveryBox(SharedResource.LockStrategy strategy) { this(strategy, 0); }
+
+    public DeliveryBox(SharedResource.LockStrategy strategy, int capacity) {
+        this.capacity = capacity;
+        stripes = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            stripes.put(category, new Stripe(strategy));
+        }
+    }
+
+    /* Record the lock wait and hold times of each category of the box in "metrics". */
+    public void instrument(Metrics metrics) {
+        for (Category category : Category.values()) {
+            stripes.get(category).instrument(metrics, "box." + category.name().toLowerCase());
+        }
     }
 
-    public int numberOfItems(Category category) { return box.get(category).size(); }
+    /* Number of items of category "category" in the box. */
+    public int numberOfItems(Category category) { return stripes.get(category).size; }
+
+    /* Number of items in the box. */
+    public int numberOfItems() { return totalItems.get(); }
+
+    public int capacity() { return capacity; }
+
+    /* Used when the store stops: wakes up the trucks waiting for room. */
+    public void close() {
+        synchronized (room) {
+            closed = true;
+            room.notifyAll();
+        }
+    }
+
+    /* Add "count" items to the stripe of "category", the total is not changed. */
+    private void fillStripe(Category category, int count) {
+        if (count == 0) { return; }
+        Stripe stripe = stripes.get(category);
+
+        stripe.requestAccess();
+        try { stripe.size += count; }
+        finally { stripe.freeAccess(); }
+    }
+
+    /* Put "count" items of category "category" in the box, regardless of its capacity. */
+    public void addItems(Category category, int count) {
+        totalItems.addAndGet(count);
+        fillStripe(category, count);
+    }
+
+    /* Put the items of a delivery in the box, regardless of its capacity,
+     * "counts" being the number of items of each category, each stripe is
+     * only locked once.
+     */
+    public void addItems(int[] counts) {
+        for (Category category : Category.values()) {
+            addItems(category, counts[category.ordinal()]);
+        }
+    }
+
+    /* Put the "total" items of "counts" in the box if there is room for all
+     * of them, returns false, without adding any, if there is not.
+     */
+    public boolean tryAddItems(int[] counts, int total) {
+        if (capacity == 0) { totalItems.addAndGet(total); }
+        else {
+            int current;
+            do {
+                current = totalItems.get();
+                if (current + total > capacity) { return false; }
+            } while (!totalItems.compareAndSet(current, current + total));
+        }
+
+        for (Category category : Category.values()) {
+            fillStripe(category, counts[category.ordinal()]);
+        }
+        return true;
+    }
+
+    /* Wait until there is room for "total" items, or the box is closed, the
+     * caller must not hold any lock the assistants need to take items from the box.
+     */
+    public void awaitRoom(int total) {
+        synchronized (room) {
+            waitingForRoom++;
+            try {
+                while (totalItems.get() + total > capacity && !closed) {
+                    try { room.wait(); }
+                    catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+                }
+            } finally { waitingForRoom--; }
+        }
+    }
+
+    /* Take at most "max" items of category "category", returns the number of items taken. */
+    public int claim(Category category, int max) {
+        Stripe stripe = stripes.get(category);
+
+        stripe.requestAccess();
+        try {
+            int taken = Math.min(max, stripe.size);
+            stripe.size -= taken;
+            totalItems.addAndGet(-taken);
+            if (taken > 0 && waitingForRoom > 0) { synchronized (room) { room.notifyAll(); } }
+            return taken;
+        } finally { stripe.freeAccess(); }
+    }
 
-    public Queue<Item> getItems(Category category) { return box.get(category); }
+    /* Take at most "maxItems" items from at most "maxCategories" categories,
+     * trying the categories in the order given by "order", and add them to
+     * "into". Each category is claimed atomically, returns the number of items taken.
+     */
+    public int claim(Category[] order, int maxItems, int maxCategories, Load into) {
+        int items      = 0; // number of items taken
+        int categories = 0; // number of categories items were taken from
 
-    public void addItemToBox(Item item) { box.get(item.getCategory()).add(item); }
+        for (Category category : order) {
+            if (items == maxItems || categories == maxCategories) { break; }
+            if (numberOfItems(category) == 0) { continue; }
 
-    public DeliveryBox() {
-        box = new HashMap<>();
-        for(Category category : Category.values()) {
-            box.put(category, new LinkedList<>());
+            int taken = claim(category, maxItems - items);
+            if (taken > 0) { into.add(category, taken); items += taken; categories++; }
         }
+        return items;
     }
 }
@@ -1,15 +1,95 @@
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
-/* The delivery trucks responsible for bringing
- * new items to the thrift store.
+/* The delivery trucks responsible for bringing new items to the thrift
+ * store. At each tick, a truck arrives with probability 1 / DELIVERY_INTERVAL,
+ * its load being prepared before it reaches the box. When the box is full,
+ * the truck waits until the assistants made enough room (WAIT), or leaves
+ * with its load (REFUSE). In events mode, the trucks are stepped by the
+ * store at each tick, and a waiting truck tries again at the next tick,
+ * in the other modes each truck runs on its own thread.
  */
-public class DeliveryTruck {
-    /* Delivers nItems random items. */
-    public Item[] randomDelivery(Random random, int nItems) {
-        Item[] items = new Item[nItems];
+public class DeliveryTruck extends Util implements Runnable {
+    /* What a truck does when its load does not fit in the box. */
+    public static enum WhenFull { WAIT, REFUSE }
+
+    private final Store store;
+    private final Random random;
+    private final int[] load = new int[Category.values().length]; // items of each category in the truck
+
+    private final Histogram waitTicks; // ticks waited for room in the box before unloading
+    private final LongAdder refused;   // items of the loads refused because the box was full
+
+    private boolean loaded; // true when the truck waits to unload "load"
+    private int arrivedAt;  // tick the truck arrived at
+    private int lastTick;
+
+    public DeliveryTruck(Store store, Random random) {
+        this.store  = store;
+        this.random = random;
+        waitTicks   = store.metrics.histogram("delivery.wait_ticks");
+        refused     = store.metrics.counter("delivery.refused_items");
+    }
+
+    /* Delivers nItems random items, "into" receives the
+     * number of items delivered of each category.
+     */
+    public static void randomDelivery(Random random, int nItems, int[] into) {
+        Arrays.fill(into, 0);
         for (int i = 0; i < nItems; i++) {
-            items[i] = new Item(Category.randomCategory(random));
+            into[Category.randomCategory(random).ordinal()]++;
+        }
+    }
+
+    private boolean arrives() { return random.nextInt(store.DELIVERY_INTERVAL) == 0; }
+
+    /* Arrive with a new load, prepared on the way. */
+    private void arrive() {
+        randomDelivery(random, store.ITEMS_PER_DELIVERY, load);
+        loaded    = true;
+        arrivedAt = store.ticks;
+    }
+
+    /* Try to unload, returns false if the truck has to wait. */
+    private boolean unload() {
+        if (store.receiveDelivery(load, store.ITEMS_PER_DELIVERY)) {
+            waitTicks.record(store.ticks - arrivedAt);
+            loaded = false;
+            return true;
+        }
+        if (store.BOX_FULL == WhenFull.REFUSE) {
+            refused.add(store.ITEMS_PER_DELIVERY);
+            log("=> Delivery refused, the delivery box is full\n", store.ticks);
+            loaded = false;
+            return true;
+        }
+        return false;
+    }
+
+    /* Events mode: called by the store at each tick. */
+    public void step() {
+        if (!loaded) {
+            if (!arrives()) { return; }
+            arrive();
+        }
+        unload();
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            if (store.isStopping()) { return; }
+
+            if (lastTick != store.ticks) {
+                lastTick = store.ticks;
+
+                if (arrives()) {
+                    arrive();
+                    while (!unload() && !store.isStopping()) { store.deliveryBox.awaitRoom(store.ITEMS_PER_DELIVERY); }
+                }
+            }
+
+            store.awaitNextTick(lastTick);
         }
-        return items;
     }
 }
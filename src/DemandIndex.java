@@ -0,0 +1,64 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Customers waiting in each section of a store, kept up to date by the
+ * sections with atomic counters, and the most starved section: the one
+ * where the most customers wait. It is updated on each change rather than
+ * searched for, a section that just overtook it replacing it, and the
+ * sections only being compared when its own count goes down. As the
+ * counts, it is read without any lock and may be one change behind, but
+ * it is checked when read, and searched for again if nobody waits there.
+ */
+public class DemandIndex {
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final AtomicIntegerArray waiting = new AtomicIntegerArray(CATEGORIES.length); // per category
+    private final AtomicInteger starved = new AtomicInteger(); // ordinal of the category with the most customers waiting
+
+    /* Called by the section of "category" when "delta" customers start (or stop) waiting. */
+    void changed(Category category, int delta) {
+        int c = category.ordinal();
+        int count = waiting.addAndGet(c, delta);
+        int current = starved.get();
+
+        if (delta > 0) {
+            // replaced only if it did not change meanwhile, else compared again with the new one
+            while (c != current && count > waiting.get(current) && !starved.compareAndSet(current, c)) {
+                current = starved.get();
+            }
+        } else if (c == current) {
+            starved.compareAndSet(current, mostWaiting());
+        }
+    }
+
+    /* Ordinal of the category with the most customers waiting, comparing all of them. */
+    private int mostWaiting() {
+        int best = 0;
+        for (int other = 1; other < CATEGORIES.length; other++) {
+            if (waiting.get(other) > waiting.get(best)) { best = other; }
+        }
+        return best;
+    }
+
+    /* Number of customers waiting in the section of "category". */
+    public int waiting(Category category) { return waiting.get(category.ordinal()); }
+
+    /* Number of customers waiting in all the sections. */
+    public int total() {
+        int total = 0;
+        for (int c = 0; c < CATEGORIES.length; c++) { total += waiting.get(c); }
+        return total;
+    }
+
+    /* Category of the section with the most customers waiting, null if nobody waits. */
+    public Category mostStarved() {
+        int c = starved.get();
+        if (waiting.get(c) > 0) { return CATEGORIES[c]; }
+
+        // a concurrent update may have left a section nobody waits in
+        int best = mostWaiting();
+        if (waiting.get(best) == 0) { return null; }
+        starved.compareAndSet(c, best);
+        return CATEGORIES[best];
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.*;
+
+/* Central restocking planner shared by all the assistants of a store.
+ * For each category, it estimates the number of items still needed in 
+ * the section: the customers waiting there, plus TARGET_STOCK items on 
+ * the shelves, minus the items already on the shelves and the ones other
+ * assistants are carrying to it. The assistant is assigned the categories
+ * with the largest needs, then the fullest categories of the box.
+ * The plan is computed from a copy of the live counts, outside of any lock,
+ * the items on the shelves being read optimistically with the STAMPED
+ * strategy (an estimate with the others).
+ */
+public class DemandPlanner implements RestockStrategy {
+    private final int TARGET_STOCK; // number of items we want on the shelves of each section
+
+    public DemandPlanner(int targetStock) { TARGET_STOCK = targetStock; }
+
+    @Override
+    public Category[] plan(Store store, int maxItems, int maxCategories, int[] load) {
+        int n = Category.values().length;
+        int[] boxed   = new int[n]; // items in the delivery box
+        int[] waiting = new int[n]; // customers waiting in the section
+        int[] need    = new int[n]; // items still needed by the section, that the box can provide
+
+        for (Category category : Category.values()) {
+            int c = category.ordinal();
+            Section section = store.sections.get(category);
+
+            boxed[c]   = store.deliveryBox.numberOfItems(category);
+            waiting[c] = store.demand.waiting(category);
+
+            int missing = waiting[c] + TARGET_STOCK - section.numberOfItems() - store.inFlight.get(c);
+            need[c]     = Math.max(0, Math.min(missing, boxed[c]));
+        }
+
+        // the categories with the largest needs first, waiting customers breaking ties,
+        // then the categories with the most items in the box
+        Category[] order = Category.values();
+        Arrays.sort(order, Comparator.comparingInt((Category c) -> need[c.ordinal()])
+                                     .thenComparingInt(c -> waiting[c.ordinal()])
+                                     .thenComparingInt(c -> boxed[c.ordinal()])
+                                     .reversed());
+
+        // assigning the load: as many items as possible of the categories in
+        // most need, so that the assistant does not come back for them right
+        // away, then of the fullest categories of the box
+        Arrays.fill(load, 0);
+        int capacity = maxItems, chosen = 0;
+
+        for (Category category : order) {
+            int c = category.ordinal();
+            if (chosen == maxCategories || capacity == 0) { break; }
+            if (boxed[c] == 0) { continue; }
+
+            load[c] = Math.min(capacity, boxed[c]);
+            capacity -= load[c];
+            chosen++;
+        }
+        return order;
+    }
+
+    @Override
+    public int takeItems(Store store, Category[] order, int[] load, int maxItems, int maxCategories, Load into) {
+        // claiming the planned load, other assistants may have taken some of the 
+        // items meanwhile, in which case we just carry less
+        int items = 0;
+        for (Category category : order) {
+            if (load[category.ordinal()] > 0) {
+                int taken = store.deliveryBox.claim(category, load[category.ordinal()]);
+                into.add(category, taken);
+                items += taken;
+            }
+        }
+        return items;
+    }
+}
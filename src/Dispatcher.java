@@ -0,0 +1,56 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/* Work notifications for the assistants: deliveries and customers starting
+ * to wait post a notification, and idle assistants park until the next one
+ * instead of polling the delivery box. In events mode, the parked assistants
+ * are rescheduled when a notification is posted.
+ */
+public class Dispatcher {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition posted   = lock.newCondition();
+
+    private volatile long notifications; // number of notifications posted so far
+    private volatile int waiting;        // number of assistants parked in "await"
+
+    private final List<Runnable> parked = new ArrayList<>(); // events mode: actions waiting for a notification
+    private EventScheduler scheduler;                         // events mode: where the parked actions are scheduled
+
+    /* Number of notifications posted so far, to be read before checking for
+     * work, so that a notification posted meanwhile is not missed.
+     */
+    public long notifications() { return notifications; }
+
+    /* Number of assistants parked, waiting for work. */
+    public int idle() { return waiting + parked.size(); }
+
+    /* Wake up all the parked assistants. */
+    public void post() {
+        lock.lock();
+        try {
+            notifications++;
+            posted.signalAll();
+        } finally { lock.unlock(); }
+
+        if (!parked.isEmpty()) {
+            for (Runnable action : parked) { scheduler.schedule(0, action); }
+            parked.clear();
+        }
+    }
+
+    /* Park until a notification is posted after the "seen" first ones. */
+    public void await(long seen) {
+        lock.lock();
+        try {
+            waiting++;
+            while (notifications == seen) { posted.awaitUninterruptibly(); }
+            waiting--;
+        } finally { lock.unlock(); }
+    }
+
+    /* Events mode: run "action" when the next notification is posted. */
+    public void park(EventScheduler scheduler, Runnable action) {
+        this.scheduler = scheduler;
+        parked.add(action);
+    }
+}
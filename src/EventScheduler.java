@@ -0,0 +1,58 @@
+import java.util.*;
+
+/* Discrete-event scheduler running the store on a virtual clock.
+ * Instead of sleeping for some number of ticks, actors schedule their
+ * next action at a tick in the future, and the scheduler jumps directly
+ * from one event to the next, so a run is not bound to wall-clock time.
+ */
+public class EventScheduler {
+
+    /* An action to run at a given tick, events scheduled for the same
+     * tick are run in the order in which they were scheduled.
+     */
+    private static final class Event implements Comparable<Event> {
+        final long tick;
+        final long seq;
+        final Runnable action;
+
+        Event(long tick, long seq, Runnable action) {
+            this.tick = tick; this.seq = seq; this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (tick != other.tick) { return Long.compare(tick, other.tick); }
+            return Long.compare(seq, other.seq);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+    private long now; // current virtual tick
+    private long seq; // number of events scheduled so far, used to break ties
+    private boolean stopped; // set by "stop", no more events are run
+
+    /* Get the current virtual tick. */
+    public long now() { return now; }
+
+    /* Run "action" in "delay" ticks from now. */
+    public void schedule(long delay, Runnable action) {
+        assert delay >= 0;
+        events.add(new Event(now + delay, seq++, action));
+    }
+
+    /* Make "runUntil" return after the current event. */
+    public void stop() { stopped = true; }
+
+    /* Run all the events scheduled up to tick "end" (included), or until stopped
+     * or until the thread is interrupted (a chain stopping its shards).
+     */
+    public void runUntil(long end) {
+        Thread thread = Thread.currentThread();
+        while (!stopped && !events.isEmpty() && events.peek().tick <= end && !thread.isInterrupted()) {
+            Event event = events.poll();
+            now = event.tick;
+            event.action.run();
+        }
+    }
+}
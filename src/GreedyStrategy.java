@@ -0,0 +1,49 @@
+import java.util.*;
+
+/* Greedy restocking: we first take the items of the section where the most
+ * customers are waiting, then the items of which there are the most in the
+ * delivery box.
+ */
+public class GreedyStrategy implements RestockStrategy {
+
+    /* Returns the categories in the order in which the assistant should take
+     * their items. The order is computed from a copy of the current counts, 
+     * without holding any lock, the most starved section being given by the
+     * demand index of the store rather than searched for.
+     */
+    private Category[] categoriesByPriority(Store store) {
+        int[] boxed = new int[Category.values().length]; // items in the delivery box
+        for (Category category : Category.values()) {
+            boxed[category.ordinal()] = store.deliveryBox.numberOfItems(category);
+        }
+
+        Category[] order = Category.values();
+        Arrays.sort(order, Comparator.comparingInt((Category c) -> boxed[c.ordinal()]).reversed());
+
+        // the most starved section goes first, if the box has items for it
+        Category starved = store.demand.mostStarved(); // null if nobody waits
+        if (starved != null && boxed[starved.ordinal()] > 0) {
+            int at = Arrays.asList(order).indexOf(starved);
+            System.arraycopy(order, 0, order, 1, at);
+            order[0] = starved;
+        }
+
+        // it is possible that while the assistant will be walking to the section 
+        // (where the customer is waiting), an assistant fills the section and 
+        // therefore the customer leaves, in this case it is not optimal
+        // -> but it doesnt break anything 
+
+        return order;
+    }
+
+    @Override
+    public Category[] plan(Store store, int maxItems, int maxCategories, int[] load) { return categoriesByPriority(store); }
+
+    @Override
+    public int takeItems(Store store, Category[] order, int[] load, int maxItems, int maxCategories, Load into) {
+        // each category of the box is claimed atomically, so assistants do not
+        // need to take a lock on the whole box, if another assistant took the 
+        // items of a category first we just move on to the next category
+        return store.deliveryBox.claim(order, maxItems, maxCategories, into);
+    }
+}
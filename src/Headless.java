@@ -0,0 +1,105 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/* Runs the store without any console output, RUNS times back to back in
+ * the same JVM, each run lasting TICKS ticks or until PURCHASES items were
+ * sold (no limit if 0), in the mode of the store config, as fast as it can
+ * in events mode, at TICK_TIME ms per tick in the others. A summary of the
+ * throughput and of the waits of each run is written as a JSON line or a
+ * CSV row (FORMAT), to OUTPUT or to the standard output if empty.
+ * Any parameter of the config files can be given as KEY=VALUE arguments,
+ * run r uses the seed SEED + r when SEED is set.
+ */
+public class Headless extends Util {
+    public static enum Format { JSON, CSV }
+
+    private static final String[] COLUMNS = { "run", "mode", "seed", "ticks", "purchases", "seconds", "purchases_per_s",
+                                              "ticks_per_s", "stockouts", "mean_wait", "p50_wait", "p99_wait", "max_wait",
+                                              "mean_backlog", "max_backlog", "refused_items" };
+
+    private final long TICKS;     // duration of each run, no limit if 0
+    private final long PURCHASES; // items sold before each run stops, no limit if 0
+    private final int RUNS;       // number of runs
+    private final Format FORMAT;  // format of the summaries
+    private final String OUTPUT;  // file the summaries are written to, the standard output if empty
+    private final long SEED;      // seed of the first run, random if 0
+
+    private final Properties overrides; // parameters given on the command line
+
+    public Headless(String[] arguments) {
+        overrides = new Properties();
+        overrides.setProperty("LOG_LEVEL", "OFF");
+        for (String argument : arguments) {
+            int equals = argument.indexOf('=');
+            if (equals < 0) { throw new IllegalArgumentException("expected KEY=VALUE, got " + argument); }
+            overrides.setProperty(argument.substring(0, equals).trim(), argument.substring(equals + 1).trim());
+        }
+
+        Properties config = loadConfigFile(configFilename(), overrides);
+
+        TICKS     = Long.parseLong(config.getProperty("TICKS"));
+        PURCHASES = Long.parseLong(config.getProperty("PURCHASES", "0"));
+        RUNS      = Integer.parseInt(config.getProperty("RUNS", "1"));
+        FORMAT    = Format.valueOf(config.getProperty("FORMAT", "JSON"));
+        OUTPUT    = config.getProperty("OUTPUT", "");
+        SEED      = Long.parseLong(loadConfigFile("config/Store.config", overrides).getProperty("SEED", "0"));
+    }
+
+    /* Values of the columns for a finished run. */
+    private static Object[] summary(int run, Store store, long seed, double seconds) {
+        Histogram waits   = store.metrics.histogram("customer.wait_ticks");
+        Histogram backlog = store.metrics.histogram("box.backlog");
+        long purchases    = store.itemsSoldRun(); // the ones of the snapshot excluded, when restored
+        int ticks         = store.ticksRun();
+
+        return new Object[] { run, store.MODE, seed, ticks, purchases, seconds, purchases / seconds,
+                              ticks / seconds, store.metrics.counter("customer.stockouts").sum(), waits.mean(),
+                              waits.percentile(0.5), waits.percentile(0.99), waits.max(), backlog.mean(), backlog.max(),
+                              store.metrics.counter("delivery.refused_items").sum() };
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) { return String.format(Locale.ROOT, "%.3f", (Double) value); }
+        return String.valueOf(value);
+    }
+
+    private String line(Object[] values) {
+        StringBuilder line = new StringBuilder();
+        if (FORMAT == Format.CSV) {
+            for (Object value : values) { line.append(line.length() == 0 ? "" : ",").append(format(value)); }
+            return line.toString();
+        }
+
+        line.append('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) { line.append(','); }
+            line.append('"').append(COLUMNS[i]).append("\":");
+            if (values[i] instanceof Enum) { line.append('"').append(values[i]).append('"'); }
+            else { line.append(format(values[i])); }
+        }
+        return line.append('}').toString();
+    }
+
+    public void run() throws IOException {
+        PrintStream out = OUTPUT.isEmpty() ? System.out : new PrintStream(Files.newOutputStream(Paths.get(OUTPUT)), false, "UTF-8");
+        if (FORMAT == Format.CSV) { out.println(String.join(",", COLUMNS)); }
+
+        for (int run = 0; run < RUNS; run++) {
+            // with several runs, each one writes its own files
+            long seed = SEED == 0 ? 0 : SEED + run;
+            Properties runOverrides = RUNS == 1 ? overrides : Store.runOverrides(overrides, seed, run);
+            runOverrides.setProperty("SEED", "" + seed);
+
+            Store store = new Store(runOverrides);
+            long start  = System.nanoTime();
+            store.run(TICKS, PURCHASES);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            out.println(line(summary(run, store, seed, seconds)));
+        }
+
+        out.flush();
+        if (out != System.out) { out.close(); }
+    }
+}
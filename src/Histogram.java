@@ -0,0 +1,77 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.*;
+
+/* Histogram of non-negative values with log-linear buckets (HDR-style):
+ * each power of two is split into 8 buckets, so that any recorded value
+ * is known with a precision of ~12%. Recording is lock-free and does not
+ * allocate, so it can stay enabled on the hot paths.
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB      = 1 << SUB_BITS; // number of buckets per power of two
+
+    private final AtomicLongArray buckets = new AtomicLongArray((65 - SUB_BITS) * SUB);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum   = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /* Index of the bucket containing "value". */
+    private static int index(long value) {
+        if (value < SUB) { return (int) value; }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub      = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return (exponent - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /* Smallest value contained in bucket "index". */
+    private static long lowerBound(int index) {
+        if (index < SUB) { return index; }
+        int exponent = index / SUB + SUB_BITS - 1;
+        return (long) (SUB + index % SUB) << (exponent - SUB_BITS);
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /* Add all the values recorded in "other" to this histogram. */
+    public void merge(Histogram other) {
+        for (int i = 0; i < buckets.length(); i++) { buckets.addAndGet(i, other.buckets.get(i)); }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max());
+    }
+
+    public long count() { return count.sum(); }
+
+    public long max() { return max.get(); }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /* Value below which a fraction "p" of the recorded values are (0 < p <= 1). */
+    public long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) { total += buckets.get(i); }
+        if (total == 0) { return 0; }
+
+        long rank = (long) Math.ceil(p * total), seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) { return Math.min(lowerBound(i + 1) - 1, max()); }
+        }
+        return max();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "count=%d mean=%.2f p50=%d p99=%d max=%d",
+                             count(), mean(), percentile(0.5), percentile(0.99), max());
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Append-only journal of every state transition of a store, in a binary
+ * memory-mapped file. Each event is a fixed-width record, the actors claim
+ * the position of their record with an atomic increment and write it in
+ * place, without taking any lock. The file is mapped by segments, a new
+ * segment being mapped when the previous one is full.
+ *
+ * Record format (big-endian, RECORD bytes): tick (int), event (byte),
+ * category (byte, -1 if none), unused (short), actor (int, -1 for the
+ * store), value (int). The first record is the header: magic, version,
+ * record size, and number of records once the journal is closed. Records
+ * left at zero (event NONE) were claimed but not written, and if the store
+ * did not stop cleanly, the reader goes through the whole mapped file.
+ * Untouched pages of the last segment are not allocated on disk.
+ */
+public class Journal implements Closeable {
+    /* What happened, the meaning of the value of the record depends on it. */
+    public static enum Event {
+        NONE,      // unwritten record
+        STOCK,     // items put in a section when the store starts, value: items
+        DELIVERY,  // items delivered in the box, value: items
+        TAKE,      // items taken from the box by an assistant, value: items
+        RESTOCK,   // items put in a section by an assistant, value: items
+        RETURN,    // assistant back to the delivery area, value: 0
+        BREAK,     // assistant starting a break, value: duration of the break
+        WAIT,      // customer starting to wait for a section, value: 0
+        BUY;       // customer buying an item, value: ticks waited
+
+        private static final Event[] EVENTS = values();
+
+        public static Event of(int code) { return EVENTS[code]; }
+    }
+
+    public static final int RECORD = 16; // size of a record, in bytes
+
+    private static final int MAGIC    = 0x544a4e31; // "TJN1"
+    private static final int VERSION  = 1;
+    private static final int SEGMENT  = RECORD << 20; // size of a mapped segment, holds a whole number of records
+
+    private final FileChannel channel;
+    private final AtomicLong records = new AtomicLong(1); // next record to be claimed, after the header
+
+    // segments mapped so far, the array is replaced by a longer
+    // copy when a segment is added, so that it can be read without lock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    private volatile boolean closed;
+
+    public Journal(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segment(0).putInt(0, MAGIC).putInt(4, VERSION).putInt(8, RECORD);
+    }
+
+    /* Segment number "index", mapped if needed. */
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length) { return mapped[index]; }
+
+        synchronized (this) {
+            mapped = segments;
+            if (index < mapped.length) { return mapped[index]; }
+
+            MappedByteBuffer[] grown = Arrays.copyOf(mapped, index + 1);
+            try {
+                for (int i = mapped.length; i <= index; i++) {
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT, SEGMENT);
+                }
+            } catch (IOException e) { throw new UncheckedIOException(e); }
+            segments = grown;
+            return grown[index];
+        }
+    }
+
+    /* Append a record, "category" may be null and "actor" is -1 for the store. */
+    public void record(int ticks, Event event, Category category, int actor, int value) {
+        if (closed) { return; }
+
+        long position = records.getAndIncrement() * RECORD;
+        MappedByteBuffer segment = segment((int) (position / SEGMENT));
+        int offset = (int) (position % SEGMENT);
+
+        segment.putInt(offset, ticks)
+               .put(offset + 5, category == null ? -1 : (byte) category.ordinal())
+               .putInt(offset + 8, actor)
+               .putInt(offset + 12, value)
+               .put(offset + 4, (byte) event.ordinal()); // last, a non-zero event marks the record as written
+    }
+
+    /* Flush the journal and write the number of records in the header. The
+     * file stays mapped, so that actors still running can finish their record.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) { return; }
+        closed = true;
+
+        segment(0).putInt(12, (int) Math.min(records.get(), (long) segments.length * SEGMENT / RECORD));
+        for (MappedByteBuffer segment : segments) { segment.force(); }
+        channel.close();
+    }
+
+    /* Reads the records of a journal in order, mapping one segment at a
+     * time so that the whole file is never loaded in memory.
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+
+        private MappedByteBuffer segment;
+        private long segmentStart = -1;
+        private long position = RECORD; // after the header
+
+        // fields of the current record
+        public int ticks, actor, value;
+        public Event event;
+        public Category category;
+
+        public Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+
+            ByteBuffer header = ByteBuffer.allocate(RECORD);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            header.flip();
+            if (header.remaining() < RECORD || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != RECORD) {
+                channel.close();
+                throw new IOException(file + " is not a store journal");
+            }
+
+            int records = header.getInt(); // 0 if the journal was not closed
+            size = records > 0 ? Math.min((long) records * RECORD, channel.size()) : channel.size();
+        }
+
+        /* Move to the next written record, false at the end of the journal. */
+        public boolean next() throws IOException {
+            while (position + RECORD <= size) {
+                long start = position / SEGMENT * SEGMENT;
+                if (start != segmentStart) {
+                    segment      = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT, size - start));
+                    segmentStart = start;
+                }
+
+                int offset = (int) (position - start);
+                position  += RECORD;
+
+                int code = segment.get(offset + 4);
+                if (code == 0) { continue; } // never written
+
+                byte categoryCode = segment.get(offset + 5);
+                ticks    = segment.getInt(offset);
+                event    = Event.of(code);
+                category = categoryCode < 0 ? null : Category.values()[categoryCode];
+                actor    = segment.getInt(offset + 8);
+                value    = segment.getInt(offset + 12);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException { channel.close(); }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.ArrayDeque;
+
+/* Items carried by an assistant: the number of items of each category, and
+ * the order in which their sections are visited. Only counts are kept, so
+ * carrying items does not allocate anything.
+ */
+public class Load {
+    private final int[] items = new int[Category.values().length]; // items carried, per category
+    private final ArrayDeque<Category> route = new ArrayDeque<>();  // categories, in the order of the visits
+    private int size; // total number of items carried
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    /* Number of items of category "category" carried. */
+    public int items(Category category) { return items[category.ordinal()]; }
+
+    /* Category of the next section to visit, null if nothing is carried. */
+    public Category next() { return route.peek(); }
+
+    /* Categories of the items carried, in the order of the visits. */
+    public Category[] route() { return route.toArray(new Category[0]); }
+
+    /* Add "count" items of category "category", if the load has no item of
+     * this category yet, its section is visited after the other ones.
+     */
+    public void add(Category category, int count) {
+        if (count == 0) { return; }
+        if (items[category.ordinal()] == 0) { route.add(category); }
+        items[category.ordinal()] += count;
+        size += count;
+    }
+
+    /* Add all the items of "other" to this load. */
+    public void add(Load other) {
+        for (Category category : other.route) { add(category, other.items(category)); }
+    }
+
+    /* Remove "count" items of category "category". */
+    public void remove(Category category, int count) {
+        assert count <= items[category.ordinal()];
+        items[category.ordinal()] -= count;
+        size -= count;
+        if (items[category.ordinal()] == 0) { route.remove(category); }
+    }
+
+    /* Visit the sections in the order of the "count" first categories of
+     * "order", which must be the categories of the items carried.
+     */
+    public void reorder(Category[] order, int count) {
+        assert count == route.size();
+        route.clear();
+        for (int i = 0; i < count; i++) { route.add(order[i]); }
+    }
+
+    public void clear() {
+        for (Category category : route) { items[category.ordinal()] = 0; }
+        route.clear();
+        size = 0;
+    }
+
+    public Load copy() {
+        Load copy = new Load();
+        copy.add(this);
+        return copy;
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Open-system load: instead of a fixed population of customers buying
+ * forever, customers arrive, buy some items and leave. At each tick, the
+ * number of arrivals is drawn from the arrival model (ARRIVALS in the store
+ * config):
+ * POISSON: Poisson arrivals of ARRIVAL_RATE customers per tick,
+ * BURSTY:  Poisson arrivals whose rate switches between ARRIVAL_RATE and
+ *          BURST_RATE, the calm and burst periods lasting CALM_TICKS and
+ *          BURST_TICKS ticks on average (exponentially distributed),
+ * TRACE:   the arrivals are read from TRACE_FILE, one "tick customers"
+ *          line per tick with arrivals, in increasing order of ticks.
+ * Each customer buys between 1 and MAX_ITEMS_PER_VISIT items, uniformly,
+ * and gives up an item after waiting PATIENCE ticks for it (never if 0).
+ * Only in events mode: customers are scheduled, not threads, and the
+ * customers who left are reused by the next arrivals.
+ */
+public class LoadGenerator extends Util {
+    public static enum Arrivals { CLOSED, POISSON, BURSTY, TRACE }
+
+    private final Arrivals ARRIVALS;
+    private final double ARRIVAL_RATE;     // customers per tick
+    private final double BURST_RATE;       // customers per tick during bursts
+    private final double CALM_TICKS;       // mean duration of the calm periods
+    private final double BURST_TICKS;      // mean duration of the bursts
+    private final String TRACE_FILE;       // arrivals of the TRACE model
+    private final int MAX_ITEMS_PER_VISIT; // maximum number of items bought by a customer
+    private final int PATIENCE;            // ticks a customer waits for an item before giving up, for ever if 0
+
+    private final Store store;
+    private final Random random;
+    private EventScheduler scheduler;
+
+    private final ArrayDeque<Customer> idle = new ArrayDeque<>(); // customers who left, reused by the arrivals
+
+    private boolean bursting;         // BURSTY: true during a burst
+    private BufferedReader trace;     // TRACE: arrivals not read yet, null once all were read
+    private long traceTick = -1;      // TRACE: tick of the next arrivals read from the trace
+    private int traceCustomers;       // TRACE: number of customers arriving then
+
+    private final LongAdder arrivals;   // number of customers who entered the store
+    private final LongAdder departures; // number of customers who left the store
+
+    public LoadGenerator(Store store, Arrivals arrivalsModel) {
+        Properties config = loadConfigFile(configFilename(), store.overrides);
+
+        this.store = store;
+        random     = new Random(store.newSeed());
+        arrivals   = store.metrics.counter("customer.arrivals");
+        departures = store.metrics.counter("customer.departures");
+        store.metrics.gauge("customer.in_store", () -> arrivals.sum() - departures.sum());
+
+        ARRIVALS            = arrivalsModel;
+        ARRIVAL_RATE        = Double.parseDouble(config.getProperty("ARRIVAL_RATE"));
+        BURST_RATE          = Double.parseDouble(config.getProperty("BURST_RATE"));
+        CALM_TICKS          = Double.parseDouble(config.getProperty("CALM_TICKS"));
+        BURST_TICKS         = Double.parseDouble(config.getProperty("BURST_TICKS"));
+        TRACE_FILE          = config.getProperty("TRACE_FILE", "");
+        MAX_ITEMS_PER_VISIT = Integer.parseInt(config.getProperty("MAX_ITEMS_PER_VISIT"));
+        PATIENCE            = Integer.parseInt(config.getProperty("PATIENCE", "0"));
+
+        if (ARRIVALS == Arrivals.TRACE) {
+            try { trace = Files.newBufferedReader(Paths.get(TRACE_FILE)); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
+    }
+
+    /* Number of events of a Poisson process of rate "rate" in one tick. */
+    private int poisson(double rate) {
+        if (rate <= 0) { return 0; }
+        if (rate > 30) { // normal approximation, the product below would underflow
+            return (int) Math.max(0, Math.round(rate + Math.sqrt(rate) * random.nextGaussian()));
+        }
+
+        double limit = Math.exp(-rate), product = random.nextDouble();
+        int count = 0;
+        while (product > limit) { product *= random.nextDouble(); count++; }
+        return count;
+    }
+
+    /* TRACE: number of customers arriving at "tick". */
+    private int traceArrivals(long tick) {
+        try {
+            while (trace != null && traceTick < tick) {
+                String line = trace.readLine();
+                if (line == null) { trace.close(); trace = null; break; }
+
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) { continue; }
+                String[] fields = line.split("\\s+");
+                traceTick      = Long.parseLong(fields[0]);
+                traceCustomers = fields.length > 1 ? Integer.parseInt(fields[1]) : 1;
+            }
+        } catch (IOException e) { throw new UncheckedIOException(e); }
+
+        return traceTick == tick ? traceCustomers : 0;
+    }
+
+    /* Number of customers arriving at "tick". */
+    private int arrivals(long tick) {
+        switch (ARRIVALS) {
+            case BURSTY:
+                // a period ends at each tick with probability 1 / its mean duration
+                if (random.nextDouble() * (bursting ? BURST_TICKS : CALM_TICKS) < 1) { bursting = !bursting; }
+                return poisson(bursting ? BURST_RATE : ARRIVAL_RATE);
+            case TRACE:
+                return traceArrivals(tick);
+            default:
+                return poisson(ARRIVAL_RATE);
+        }
+    }
+
+    /* Called by a customer leaving the store. */
+    private void leave(Customer customer) {
+        departures.increment();
+        idle.push(customer);
+    }
+
+    /* Make the customers of the current tick enter the store. */
+    private void tick() {
+        int count = arrivals(scheduler.now());
+        for (int i = 0; i < count; i++) {
+            Customer customer = idle.isEmpty() ? new Customer(store) : idle.pop();
+            arrivals.increment();
+            customer.visit(scheduler, 1 + random.nextInt(MAX_ITEMS_PER_VISIT), PATIENCE, this::leave);
+        }
+        scheduler.schedule(1, this::tick);
+    }
+
+    /* Events mode: start generating the arrivals. */
+    public void simulate(EventScheduler scheduler) {
+        this.scheduler = scheduler;
+        scheduler.schedule(0, this::tick);
+    }
+}
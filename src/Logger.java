@@ -0,0 +1,173 @@
+import java.io.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/* Asynchronous logger: the actors append their log records to a ring
+ * buffer of preallocated slots, without taking any lock, and a background
+ * thread formats them in batches and writes them to the standard output.
+ * A record can be a template whose "{}" are replaced by up to two arguments
+ * by the background thread, so that logging allocates nothing.
+ * The store and delivery truck messages are logged at level INFO, the
+ * actors ones at DEBUG.
+ */
+public final class Logger {
+    public static enum Level { OFF, INFO, DEBUG }
+
+    /* Who is logging, decides the color of the messages. */
+    public static enum Source {
+        STORE, CUSTOMER, ASSISTANT, TRUCK, OTHER;
+
+        public static Source of(Object object) {
+            switch (object.getClass().getName()) {
+                case "Store":         return STORE;
+                case "Customer":      return CUSTOMER;
+                case "Assistant":     return ASSISTANT;
+                case "DeliveryTruck": return TRUCK;
+                default:              return OTHER;
+            }
+        }
+    }
+
+    /* A log record, slots are reused once the writer is done with them. */
+    private static final class Slot {
+        Source source;
+        boolean raw;     // true for "print" (no tick or thread prefix)
+        int ticks;
+        long thread;
+        String message;  // the message, or its template if "args" > 0
+        int args;        // number of "{}" of the template
+        Object first, second;           // arguments, null if given as numbers
+        long firstNumber, secondNumber; // arguments given as numbers
+    }
+
+    private static final int CAPACITY = 1 << 13; // number of slots, power of two
+    private static final int BATCH    = 256;     // maximum number of records written per flush
+
+    private static final Slot[] slots = new Slot[CAPACITY];
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY); // sequence of the record in each slot
+    private static final AtomicLong claimed = new AtomicLong(); // next sequence to be claimed by a producer
+    private static volatile long consumed; // next sequence to be written by the writer
+
+    private static volatile Level level = Level.DEBUG;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) { slots[i] = new Slot(); published.set(i, -1); }
+
+        Thread writer = new Thread(Logger::write, "logger");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+    }
+
+    private Logger() {}
+
+    public static void setLevel(Level newLevel) { level = newLevel; }
+
+    /* True if messages of level "messageLevel" are logged. */
+    public static boolean enabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0 && level != Level.OFF;
+    }
+
+    /* Append a record to the ring buffer, waits for the writer if the buffer is full. */
+    public static void append(Source source, boolean raw, int ticks, String message) {
+        append(source, raw, ticks, message, 0, null, 0, null, 0);
+    }
+
+    /* Append a record whose "args" first "{}" of "template" are replaced by the first and
+     * second arguments, each being "first" ("second") or, if null, "firstNumber" ("secondNumber").
+     */
+    public static void append(Source source, boolean raw, int ticks, String template, int args,
+                              Object first, long firstNumber, Object second, long secondNumber) {
+        long seq = claimed.getAndIncrement();
+        while (seq - consumed >= CAPACITY) { Thread.yield(); } // backpressure
+
+        int index = (int) (seq & (CAPACITY - 1));
+        Slot slot    = slots[index];
+        slot.source  = source;
+        slot.raw     = raw;
+        slot.ticks   = ticks;
+        slot.thread  = Thread.currentThread().getId();
+        slot.message = template;
+        slot.args    = args;
+        slot.first   = first;
+        slot.second  = second;
+        slot.firstNumber  = firstNumber;
+        slot.secondNumber = secondNumber;
+
+        published.set(index, seq); // makes the record visible to the writer
+    }
+
+    /* Wait until all the records appended so far have been written. */
+    public static void flush() {
+        long end = claimed.get();
+        while (consumed < end) { LockSupport.parkNanos(100_000); }
+    }
+
+    private static void format(StringBuilder out, Slot slot) {
+        String color;
+        switch (slot.source) {
+            case STORE:     color = slot.raw ? "\033[0;32m" : null; break; // green, or white
+            case CUSTOMER:  color = "\033[38;5;208m"; break; // orange
+            case ASSISTANT: color = "\033[0;31m"; break; // red
+            case TRUCK:     color = "\033[0;32m"; break; // green, like the deliveries
+            default:        color = null; // white
+        }
+
+        if (color != null) { out.append(color); }
+        if (!slot.raw) {
+            out.append("<tick ").append(slot.ticks).append("> <thread ").append(slot.thread).append("> ");
+        }
+        appendMessage(out, slot);
+        if (color != null) { out.append("\033[0m"); }
+
+        // assistants "print" whole lines, like the logs
+        if (!slot.raw || slot.source == Source.ASSISTANT) { out.append('\n'); }
+    }
+
+    /* Append the message of "slot", its template filled with the arguments. */
+    private static void appendMessage(StringBuilder out, Slot slot) {
+        String message = slot.message;
+        int from = 0;
+        for (int arg = 0; arg < slot.args; arg++) {
+            int at = message.indexOf("{}", from);
+            if (at < 0) { break; }
+            out.append(message, from, at);
+
+            Object object = arg == 0 ? slot.first : slot.second;
+            if (object != null) { out.append(object); }
+            else { out.append(arg == 0 ? slot.firstNumber : slot.secondNumber); }
+            from = at + 2;
+        }
+        out.append(message, from, message.length());
+    }
+
+    /* Writer thread: formats the published records in batches. */
+    private static void write() {
+        PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false);
+        StringBuilder batch = new StringBuilder(1 << 16);
+
+        for (;;) {
+            long next = consumed;
+            int records = 0;
+
+            while (records < BATCH) {
+                int index = (int) (next & (CAPACITY - 1));
+                if (published.get(index) != next) { break; }
+
+                Slot slot = slots[index];
+                format(batch, slot);
+                slot.message = null;
+                slot.first = slot.second = null;
+                next++; records++;
+            }
+
+            if (records == 0) { LockSupport.parkNanos(1_000_000); continue; }
+
+            out.print(batch);
+            out.flush();
+            batch.setLength(0);
+            consumed = next; // frees the slots for the producers
+        }
+    }
+}
@@ -1,5 +1,16 @@
 public class Main {
-    public static void main(String[] argv) { 
+    public static void main(String[] argv) throws Exception { 
+        if (argv.length > 0 && argv[0].equals("batch")) { new BatchRunner().run(); return; }
+        if (argv.length > 0 && argv[0].equals("chain")) { new Chain().run(); return; }
+        if (argv.length > 0 && argv[0].equals("headless")) {
+            new Headless(java.util.Arrays.copyOfRange(argv, 1, argv.length)).run();
+            return;
+        }
+        if (argv.length > 0 && argv[0].equals("replay")) {
+            new Replay(java.nio.file.Paths.get(argv.length > 1 ? argv[1] : "journal.bin")).run();
+            return;
+        }
+
         new Store().start(); 
     }
-}
\ No newline at end of file
+}
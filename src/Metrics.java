@@ -0,0 +1,49 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/* Registry of the metrics of a store: counters, histograms, and gauges
+ * read when a snapshot is taken. Counters and histograms are created on
+ * first use, actors should keep a reference to them rather than looking
+ * them up on the hot paths.
+ */
+public class Metrics {
+    private final Map<String, LongAdder> counters   = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, LongSupplier> gauges  = new ConcurrentSkipListMap<>();
+
+    public LongAdder counter(String name) { return counters.computeIfAbsent(name, n -> new LongAdder()); }
+
+    public Histogram histogram(String name) { return histograms.computeIfAbsent(name, n -> new Histogram()); }
+
+    public void gauge(String name, LongSupplier value) { gauges.put(name, value); }
+
+    /* Current value of all the metrics, one per line. */
+    public String snapshot(int ticks) {
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append("# tick ").append(ticks).append('\n');
+
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            snapshot.append(gauge.getKey()).append(' ').append(gauge.getValue().getAsLong()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            snapshot.append(counter.getKey()).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            snapshot.append(histogram.getKey()).append(' ').append(histogram.getValue()).append('\n');
+        }
+        return snapshot.toString();
+    }
+
+    /* Write a snapshot to "file", replacing it atomically so that
+     * readers never see a partially written snapshot.
+     */
+    public void writeSnapshot(Path file, int ticks) {
+        try { Util.writeAtomically(file, ByteBuffer.wrap(snapshot(ticks).getBytes())); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.*;
+
+/* How customers choose the category of the items they buy:
+ * UNIFORM:     all the categories are as popular,
+ * ZIPF:        the k-th category (in the order of "Category") has a
+ *              weight of 1 / k^ZIPF_EXPONENT,
+ * TIME_OF_DAY: the weight of each category follows a daily cycle of
+ *              DAY_LENGTH ticks, peaking at a different time of the day
+ *              for each category, with an amplitude of DAY_AMPLITUDE (0 to 1).
+ */
+public class Popularity {
+    public static enum Model { UNIFORM, ZIPF, TIME_OF_DAY }
+
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final Model model;
+    private final double[] weights = new double[CATEGORIES.length]; // current weight of each category
+    private final double zipfExponent;
+    private final int dayLength;
+    private final double dayAmplitude;
+
+    private long weightsTick = -1; // tick the time of day weights were computed at
+    private double totalWeight;
+
+    public Popularity(Model model, double zipfExponent, int dayLength, double dayAmplitude) {
+        this.model        = model;
+        this.zipfExponent = zipfExponent;
+        this.dayLength    = dayLength;
+        this.dayAmplitude = dayAmplitude;
+
+        if (model == Model.ZIPF) {
+            for (int c = 0; c < CATEGORIES.length; c++) { weights[c] = 1 / Math.pow(c + 1, zipfExponent); }
+            totalWeight = Arrays.stream(weights).sum();
+        }
+    }
+
+    /* Category of the next item bought at tick "tick". */
+    public Category choose(Random random, long tick) {
+        if (model == Model.UNIFORM) { return Category.randomCategory(random); }
+
+        if (model == Model.TIME_OF_DAY && tick != weightsTick) {
+            weightsTick = tick;
+            totalWeight = 0;
+            for (int c = 0; c < CATEGORIES.length; c++) {
+                double phase = 2 * Math.PI * ((double) (tick % dayLength) / dayLength + (double) c / CATEGORIES.length);
+                weights[c]   = 1 + dayAmplitude * Math.sin(phase);
+                totalWeight += weights[c];
+            }
+        }
+
+        double point = random.nextDouble() * totalWeight;
+        for (int c = 0; c < CATEGORIES.length - 1; c++) {
+            point -= weights[c];
+            if (point < 0) { return CATEGORIES[c]; }
+        }
+        return CATEGORIES[CATEGORIES.length - 1];
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/* Offline analysis of a journal written by a store with JOURNAL_FILE set.
+ * The journal is streamed record by record, so its size does not matter,
+ * and the following are computed:
+ *  - the distribution of the ticks waited by the customers before buying,
+ *  - the intervals during which each section was out of stock,
+ *  - the utilization of each assistant: the fraction of the run spent on
+ *    trips (from taking items until back to the delivery area) and on break.
+ *
+ * Usage: java -cp build Main replay [journal file]
+ */
+public class Replay {
+    private final Path file;
+
+    private final Histogram waitTicks = new Histogram(); // ticks waited before each purchase
+
+    private final int[] stock      = new int[Category.values().length]; // items on the shelves of each section
+    private final int[] emptySince = new int[Category.values().length]; // tick the section became empty, -1 if not empty
+    private final Histogram[] stockouts = new Histogram[Category.values().length]; // durations of the stockouts
+
+    /* What an assistant did during the run. */
+    private static final class Activity {
+        int tripStart = -1; // tick the current trip started, -1 if not on a trip
+        long tripTicks, breakTicks, trips, items;
+    }
+
+    private final Map<Integer, Activity> assistants = new TreeMap<>();
+
+    private final long[] events = new long[Journal.Event.values().length]; // number of records of each event
+    private int firstTick = -1, lastTick;
+
+    public Replay(Path file) {
+        this.file = file;
+        Arrays.fill(emptySince, -1);
+        for (int c = 0; c < stockouts.length; c++) { stockouts[c] = new Histogram(); }
+    }
+
+    private Activity assistant(int id) { return assistants.computeIfAbsent(id, i -> new Activity()); }
+
+    /* Update the stock of a section, opening or closing its stockout interval. */
+    private void stock(Category category, int change, int tick) {
+        int c = category.ordinal();
+        boolean wasEmpty = stock[c] == 0;
+        stock[c] += change;
+
+        if (stock[c] == 0 && !wasEmpty) { emptySince[c] = tick; }
+        else if (stock[c] > 0 && emptySince[c] >= 0) {
+            stockouts[c].record(tick - emptySince[c]);
+            emptySince[c] = -1;
+        }
+    }
+
+    /* Start a trip of assistant "id" if not already on one. */
+    private void trip(int id, int tick) {
+        Activity activity = assistant(id);
+        if (activity.tripStart < 0) { activity.tripStart = tick; activity.trips++; }
+    }
+
+    private void replay(Journal.Reader reader) {
+        events[reader.event.ordinal()]++;
+        if (firstTick < 0) { firstTick = reader.ticks; }
+        lastTick = Math.max(lastTick, reader.ticks);
+
+        switch (reader.event) {
+            case STOCK:
+                stock(reader.category, reader.value, reader.ticks);
+                break;
+            case TAKE:
+                trip(reader.actor, reader.ticks);
+                assistant(reader.actor).items += reader.value;
+                break;
+            case RESTOCK:
+                trip(reader.actor, reader.ticks); // a restored assistant starts carrying items
+                stock(reader.category, reader.value, reader.ticks);
+                break;
+            case RETURN:
+                Activity activity = assistant(reader.actor);
+                if (activity.tripStart >= 0) {
+                    activity.tripTicks += reader.ticks - activity.tripStart;
+                    activity.tripStart = -1;
+                }
+                break;
+            case BREAK:
+                assistant(reader.actor).breakTicks += reader.value;
+                break;
+            case BUY:
+                waitTicks.record(reader.value);
+                stock(reader.category, -1, reader.ticks);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void run() throws IOException {
+        try (Journal.Reader reader = new Journal.Reader(file)) {
+            while (reader.next()) { replay(reader); }
+        }
+
+        // the intervals and trips still open at the end of the journal
+        for (Category category : Category.values()) {
+            if (emptySince[category.ordinal()] >= 0) {
+                stockouts[category.ordinal()].record(lastTick - emptySince[category.ordinal()]);
+            }
+        }
+        for (Activity activity : assistants.values()) {
+            if (activity.tripStart >= 0) { activity.tripTicks += lastTick - activity.tripStart; }
+        }
+
+        long duration = Math.max(1, lastTick - Math.max(firstTick, 0));
+
+        System.out.println("journal: " + file + ", ticks " + Math.max(firstTick, 0) + " to " + lastTick);
+        StringBuilder counts = new StringBuilder("events:");
+        for (Journal.Event event : Journal.Event.values()) {
+            if (event != Journal.Event.NONE) { counts.append(' ').append(event).append('=').append(events[event.ordinal()]); }
+        }
+        System.out.println(counts);
+
+        System.out.println("\nwait ticks before buying: " + waitTicks);
+        System.out.println("\nstockouts per section:");
+        for (Category category : Category.values()) {
+            Histogram intervals = stockouts[category.ordinal()];
+            System.out.printf(Locale.ROOT, "  %-15s intervals: %6d   out of stock: %5.1f%%   %s%n", category,
+                              intervals.count(), 100.0 * intervals.mean() * intervals.count() / duration, intervals);
+        }
+
+        System.out.println("\nassistants:");
+        for (Map.Entry<Integer, Activity> entry : assistants.entrySet()) {
+            Activity activity = entry.getValue();
+            System.out.printf(Locale.ROOT, "  %4d   trips: %6d   items: %7d   on trips: %5.1f%%   on break: %5.1f%%%n",
+                              entry.getKey(), activity.trips, activity.items,
+                              100.0 * activity.tripTicks / duration, 100.0 * activity.breakTicks / duration);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/* Decides which items an assistant takes from the delivery box
+ * before going to put them in their sections, in two steps: the
+ * items are planned from the live counts of the store before the
+ * items move, as the sections are read through their access, then
+ * claimed within the move.
+ */
+public interface RestockStrategy {
+
+    /* Plan to take at most "maxItems" items of at most "maxCategories" categories from
+     * the delivery box of "store". Returns the categories in the order in which to take
+     * their items, "load" receiving the items planned of each, if the strategy plans them.
+     */
+    Category[] plan(Store store, int maxItems, int maxCategories, int[] load);
+
+    /* Take the items planned with "order" and "load" from the delivery box of "store"
+     * and add them to "into". Returns the number of items taken.
+     */
+    int takeItems(Store store, Category[] order, int[] load, int maxItems, int maxCategories, Load into);
+}
@@ -1,43 +1,183 @@
-import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
 
-/* Section containing items waiting to be bought. */
+/* Section containing items waiting to be bought. The customers who found
+ * the section empty queue up, and the items added are reserved for them in
+ * the order in which they arrived, a customer coming later only buys the
+ * items nobody is waiting for.
+ */
 public class Section extends SharedResource {
-    private Set<Item> items; // the items in the section
+    private int items;    // number of items in the section, only changed while holding the access
+    private int reserved; // items reserved for waiting customers, not bought yet, changed holding the access
+    private final IntSupplier itemsField = () -> items;            // to read "items" without holding the access
+    private final IntSupplier freeField  = () -> items - reserved; // items that any customer can buy
 
     public final Category category; // the category of the items in this section
 
-    public volatile int waitingCustomers; // the number of customer waiting in this section,
-                                          // any read of this variable must be always loaded from main memory
+    private final ConcurrentLinkedQueue<Place> demands = new ConcurrentLinkedQueue<>(); // waiting customers, oldest first
+    private final AtomicInteger waiting = new AtomicInteger(); // number of customers in "demands", read without any lock
+    private final DemandIndex index;  // told when customers start or stop waiting, null if the section is on its own
 
-    public Section(Category category) {
+    private final Signal itemAdded = newSignal(); // signaled when items are reserved for waiting customers
+    private boolean closed; // set when the store stops, the customers stop waiting for items
+
+    /* What a customer wants from the section: one item, with its place in the queue
+     * if the section had none. A customer reuses its demand from one item to the next.
+     */
+    public static final class Demand {
+        private volatile boolean queued; // waiting for an item
+        private volatile boolean served; // an item was reserved for it
+        private Place place;             // place in the queue while waiting
+
+        public boolean isWaiting() { return queued; }
+
+        public boolean isServed() { return served; }
+    }
+
+    /* Place of a demand in the queue since tick "since". When the customer gives up, it is
+     * only cancelled, and dropped once it reaches the head of the queue, rather than searched for.
+     */
+    private static final class Place {
+        private final Demand demand;
+        private final long since;
+        private volatile boolean cancelled; // changed holding the access, read by the metrics too
+
+        private Place(Demand demand, long since) {
+            this.demand = demand;
+            this.since  = since;
+        }
+    }
+
+    public Section(Category category) { this(category, LockStrategy.FAIR, null); }
+
+    public Section(Category category, LockStrategy strategy) { this(category, strategy, null); }
+
+    public Section(Category category, LockStrategy strategy, DemandIndex index) {
+        super(strategy);
         this.category = category;
-        items = new HashSet<>();
+        this.index    = index;
     }
 
-    /* Used by customers to signal that they are waiting. */
-    public synchronized void addWaitingCustomer() { waitingCustomers++; }
+    /* Number of customers waiting in this section. */
+    public int waitingCustomers() { return waiting.get(); }
+
+    /* Ticks waited by the customer waiting for the longest time, at tick "now". */
+    public long longestWait(long now) {
+        for (Place place : demands) {
+            if (!place.cancelled) { return now - place.since; }
+        }
+        return 0;
+    }
+
+    /* Used by customers to queue up for an item, at tick "now". */
+    public void addWaitingCustomer(Demand demand, long now) {
+        demand.place  = new Place(demand, now);
+        demand.served = false;
+        demand.queued = true;
+        demands.add(demand.place);
+        waiting.incrementAndGet();
+        if (index != null) { index.changed(category, 1); }
+    }
 
-    /* Used by customers to signal that they finished waiting. */
-    public synchronized void removeWaitingCustomer() { waitingCustomers--; }
+    /* Used by customers giving up before an item was reserved for them, holding
+     * the access (or in events mode). Their place in the queue is cancelled.
+     */
+    public void removeWaitingCustomer(Demand demand) {
+        if (!demand.queued) { return; } // served meanwhile
+        demand.queued = false;
+        demand.place.cancelled = true;
+        demand.place = null;
+        waiting.decrementAndGet();
+        if (index != null) { index.changed(category, -1); }
+
+        // the customers waiting the longest are the first to give up
+        Place head;
+        while ((head = demands.peek()) != null && head.cancelled) { demands.poll(); }
+    }
 
     /* Get the current number of items in the section/ */
-    public final int numberOfItems() { return items.size(); }
+    public final int numberOfItems() { return read(itemsField); }
+
+    /* Number of items, read without the access nor waiting for it, for the store
+     * snapshots and states, that may hold the items gate of the store while the
+     * holder of the access waits for it. Exact while no item moves.
+     */
+    public final int itemsWithoutAccess() { return items; }
+
+    /* Number of items no waiting customer has been promised. */
+    public final int freeItems() { return read(freeField); }
 
     /* Used by assistants to add an item to the section. */
-    public void addItem(Item item) { 
-        assert item.getCategory() == this.category;
-        items.add(item); 
+    public void addItem() { addItems(1); }
+
+    /* Used to add "count" items to the section at once, the access must be held.
+     * The items are reserved for the customers waiting the longest.
+     */
+    public void addItems(int count) {
+        items += count;
+
+        int served = 0;
+        Place place;
+        while (items - reserved > 0 && (place = demands.poll()) != null) {
+            if (place.cancelled) { continue; } // the customer gave up
+            reserved++;
+            place.demand.place  = null;
+            place.demand.queued = false;
+            place.demand.served = true;
+            served++;
+        }
+        if (served == 0) { return; }
+
+        waiting.addAndGet(-served);
+        if (index != null) { index.changed(category, -served); }
+        itemAdded.signalAll(); // each woken customer checks whether it was served
     }
 
-    /* Used by customers to buy an item from the section. */
-    public void removeItem() { 
-        assert !items.isEmpty();
+    /* Used by customers to wait until an item is reserved for them, unless some
+     * are free. The access to the section must have been requested, it is released
+     * while waiting, and held again when returning. Returns false if the section was
+     * closed while the customer was still waiting.
+     */
+    public boolean awaitItem(Demand demand, long now) {
+        if (items - reserved > 0) { return true; }
 
-        int before = items.size();
-        items.remove(items.toArray()[0]); // -> maybe I should use another data structure to store the items
-        int after = items.size();
+        addWaitingCustomer(demand, now);
+        while (!demand.served && !closed) { await(itemAdded); }
+        removeWaitingCustomer(demand);
+        return demand.served;
+    }
+
+    /* Used by customers to take an item from the section, waiting until
+     * an assistant adds one if the section is empty. The access to the
+     * section must have been requested, it is released while waiting.
+     */
+    public void takeItem(Demand demand, long now) {
+        if (awaitItem(demand, now)) { removeItem(demand); }
+    }
 
-        assert after < before;
+    /* Used when the store stops: wakes up the waiting customers, who leave without an item. */
+    public void close() {
+        requestAccess();
+        try {
+            closed = true;
+            itemAdded.signalAll();
+        } finally { freeAccess(); }
     }
 
+    /* Used by customers to buy an item, the one reserved for "demand" if any, else a free one. */
+    public void removeItem(Demand demand) {
+        if (demand.served) {
+            demand.served = false;
+            reserved--;
+        }
+        assert items > reserved;
+        items--;
+    }
+
+    /* Used to buy a free item, by a customer who did not wait. */
+    public void removeItem() {
+        assert items > reserved;
+        items--;
+    }
 }
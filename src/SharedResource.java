@@ -1,17 +1,112 @@
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.function.IntSupplier;
 
 /* This class represents a ressource shared in the shop,
  * accessed by multiple threads, these threads must begin
- * any interactions with a "SharedRessource" by asking the 
- * access to the ressource with "requestAccess" and end it 
+ * any interactions with a "SharedRessource" by asking the
+ * access to the ressource with "requestAccess" and end it
  * with "freeAccess".
  */
 public abstract class SharedResource {
-    private final ReentrantLock lock = new ReentrantLock(true); // lock wit fairness set to true
+    /* How the access is locked, see "Access" for each strategy. */
+    public static enum LockStrategy { FAIR, UNFAIR, STAMPED, SPIN }
 
-    /* Wrapper around lock.lock(). */
-    public void requestAccess() { lock.lock(); }
+    private final Access access;
 
-    /* Wrapper around lock.unlock(). */
-    public void freeAccess() { lock.unlock(); }
+    private Histogram waitTime;   // time (in ns) waited to get the access, null if not instrumented
+    private Histogram holdTime;   // time (in ns) the access was held, null if not instrumented
+    private LongAdder acquired;   // number of times the access was taken, null if not instrumented
+    private LongAdder contended;  // number of times another thread was holding the access
+    private long acquiredAt;      // when the access was last acquired, only used by the holder
+
+    /* Wakes up threads waiting while holding the access. When the lock
+     * has no conditions, waiters are woken up through the monitor of the signal.
+     */
+    protected final class Signal {
+        private final Condition condition = access.newCondition(); // null if the lock has no conditions
+        private long signals; // number of signals so far, when there is no condition
+
+        /* Wake up one waiting thread, the access must be held. */
+        public void signal() {
+            if (condition != null) { condition.signal(); return; }
+            synchronized (this) { signals++; notify(); }
+        }
+
+        /* Wake up all the waiting threads, the access must be held. */
+        public void signalAll() {
+            if (condition != null) { condition.signalAll(); return; }
+            synchronized (this) { signals++; notifyAll(); }
+        }
+    }
+
+    protected SharedResource() { this(LockStrategy.FAIR); }
+
+    protected SharedResource(LockStrategy strategy) { access = Access.of(strategy); }
+
+    /* Record the lock wait and hold times of this resource in "metrics",
+     * and how often the access or its optimistic reads were contended.
+     */
+    public void instrument(Metrics metrics, String name) {
+        waitTime  = metrics.histogram(name + ".lock_wait_ns");
+        holdTime  = metrics.histogram(name + ".lock_hold_ns");
+        acquired  = metrics.counter(name + ".lock_acquired");
+        contended = metrics.counter(name + ".lock_contended");
+        access.optimisticFailures = metrics.counter(name + ".optimistic_failures");
+    }
+
+    /* Take the access, waiting for it if another thread holds it. */
+    public void requestAccess() {
+        if (waitTime == null) { access.lock(); return; }
+
+        long start = System.nanoTime();
+        if (access.lock()) { contended.increment(); }
+        acquiredAt = System.nanoTime();
+        acquired.increment();
+        waitTime.record(acquiredAt - start);
+    }
+
+    /* Give the access back. */
+    public void freeAccess() {
+        if (holdTime != null) { holdTime.record(System.nanoTime() - acquiredAt); }
+        access.unlock();
+    }
+
+    /* Value of a field only changed while holding the access, read without
+     * taking it. With the STAMPED strategy, the read is optimistic and validated,
+     * with the others it is a plain read, an estimate that may be stale, or torn
+     * if the field combines several counters.
+     */
+    protected final int read(IntSupplier field) { return access.read(field); }
+
+    /* Signal bound to the access, to wait while holding the access. */
+    protected Signal newSignal() { return new Signal(); }
+
+    /* Wait on "signal", the access is released while waiting,
+     * which is not counted in the time the access was held.
+     */
+    protected void await(Signal signal) {
+        if (holdTime != null) { holdTime.record(System.nanoTime() - acquiredAt); }
+
+        if (signal.condition != null) { signal.condition.awaitUninterruptibly(); }
+        else {
+            // signals are only sent while holding the access, so none can
+            // be missed between reading the count and releasing the access
+            long seen;
+            synchronized (signal) { seen = signal.signals; }
+            access.unlock();
+
+            boolean interrupted = false;
+            synchronized (signal) {
+                while (signal.signals == seen) {
+                    try { signal.wait(); }
+                    catch (InterruptedException e) { interrupted = true; }
+                }
+            }
+            access.lock();
+            if (interrupted) { Thread.currentThread().interrupt(); }
+        }
+
+        if (holdTime != null) { acquiredAt = System.nanoTime(); }
+    }
 }
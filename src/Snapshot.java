@@ -0,0 +1,91 @@
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/* Point-in-time copy of where all the items of a store are: on the shelves
+ * of each section, in the delivery box, or carried by each assistant. Since
+ * items only have a category, it is enough to save counts and categories.
+ * The customers are not saved, they start again on restore, as if they had
+ * just entered the store.
+ *
+ * Binary format (big-endian): magic, version, ticks, items sold, number of
+ * categories, then for each category the items in its section and in the
+ * box, then the number of assistants, and for each one the number of 
+ * categories carried followed by each category (one byte) and its count,
+ * in the order of the visits.
+ */
+public class Snapshot {
+    private static final int MAGIC   = 0x54535331; // "TSS1"
+    private static final int VERSION = 2;
+
+    public final int ticks;
+    public final long itemsSold;
+    public final int[] sectionItems; // per category
+    public final int[] boxItems;     // per category
+    public final List<Load> carried; // per assistant
+
+    public Snapshot(int ticks, long itemsSold, int[] sectionItems, int[] boxItems, List<Load> carried) {
+        this.ticks        = ticks;
+        this.itemsSold    = itemsSold;
+        this.sectionItems = sectionItems;
+        this.boxItems     = boxItems;
+        this.carried      = carried;
+    }
+
+    /* Write the snapshot to "file", replacing it atomically so that
+     * a crash while writing does not lose the previous checkpoint.
+     */
+    public void write(Path file) throws IOException {
+        int categories = Category.values().length;
+        int size = 5 * Integer.BYTES + Long.BYTES + 2 * categories * Integer.BYTES;
+        for (Load load : carried) { size += Integer.BYTES + load.route().length * (1 + Integer.BYTES); }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(ticks).putLong(itemsSold).putInt(categories);
+        for (int c = 0; c < categories; c++) { buffer.putInt(sectionItems[c]).putInt(boxItems[c]); }
+
+        buffer.putInt(carried.size());
+        for (Load load : carried) {
+            Category[] route = load.route();
+            buffer.putInt(route.length);
+            for (Category category : route) { buffer.put((byte) category.ordinal()).putInt(load.items(category)); }
+        }
+        buffer.flip();
+
+        Util.writeAtomically(file, buffer);
+    }
+
+    /* Read a snapshot written by "write", the file is memory-mapped. */
+    public static Snapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(file + " is not a store snapshot");
+            }
+
+            int ticks      = buffer.getInt();
+            long itemsSold = buffer.getLong();
+            int categories = buffer.getInt();
+            if (categories != Category.values().length) {
+                throw new IOException(file + " was taken with different categories");
+            }
+
+            int[] sectionItems = new int[categories];
+            int[] boxItems     = new int[categories];
+            for (int c = 0; c < categories; c++) { sectionItems[c] = buffer.getInt(); boxItems[c] = buffer.getInt(); }
+
+            List<Load> carried = new ArrayList<>();
+            int assistants = buffer.getInt();
+            for (int a = 0; a < assistants; a++) {
+                Load load = new Load();
+                int stops = buffer.getInt();
+                for (int i = 0; i < stops; i++) { load.add(Category.values()[buffer.get()], buffer.getInt()); }
+                carried.add(load);
+            }
+            return new Snapshot(ticks, itemsSold, sectionItems, boxItems, carried);
+        }
+    }
+}
@@ -1,27 +1,121 @@
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /* Our thrift store. */
 public class Store extends Util {
+    /* THREADS: each actor is a thread sleeping TICK_TIME ms per tick,
+     * VIRTUAL: each actor is a virtual thread woken up at each tick,
+     * EVENTS:  actors are scheduled on a virtual clock, as fast as possible.
+     */
+    public static enum Mode { THREADS, VIRTUAL, EVENTS }
+
+    public final Mode MODE;              // how the store is simulated
     public final int ITEMS_PER_DELIVERY; // number of items delivered by the delivery truck
     public final int DELIVERY_INTERVAL;  // 1 / DELIVERY_INTERVAL = P("delivery at tick t")
     public final int INITIAL_ITEMS;      // initial number of items in each section
-    public final int TICK_TIME;          // time (in milliseconds) of each tick
-    public final int ASSISTANTS;         // initial number of items in each section
-    public final int CUSTOMERS;          // time (in milliseconds) of each tick
+    public volatile int TICK_TIME;       // time (in milliseconds) of each tick, hot-reloaded
+    public volatile int ASSISTANTS;      // number of assistants, hot-reloaded
+    public volatile int CUSTOMERS;       // number of customers (closed system), hot-reloaded
+    public final String METRICS_FILE;    // file where the metrics snapshots are written, none if empty
+    public final int METRICS_INTERVAL;   // number of ticks between two metrics snapshots
+    public final long SEED;              // seed of the random number generators, random if 0
+    public final String RESTOCK_STRATEGY; // GREEDY or PLANNER, how assistants choose the items they take
+    public final int TARGET_STOCK;       // number of items the planner wants on the shelves of each section
+    public final String CHECKPOINT_FILE; // file where the store state is periodically saved, none if empty
+    public final int CHECKPOINT_INTERVAL; // number of ticks between two checkpoints
+    public final String RESTORE_FILE;    // snapshot the store starts from, INITIAL_ITEMS in each section if empty
+    public final String JOURNAL_FILE;    // file where every event of the store is recorded, none if empty
+    public final SharedResource.LockStrategy LOCK_STRATEGY; // how the sections and the delivery box are locked
+    public final LoadGenerator.Arrivals ARRIVALS; // CLOSED: CUSTOMERS customers buying forever, else an open system
+    public final int TRUCKS;             // number of delivery trucks, each delivering with probability 1 / DELIVERY_INTERVAL
+    public final int BOX_CAPACITY;       // maximum number of items in the delivery box, no limit if 0
+    public final DeliveryTruck.WhenFull BOX_FULL; // what a truck does when its load does not fit in the box
+    public final boolean AUTOSCALE;      // true if the number of assistants follows the load, see "Autoscaler"
+
+    public final Properties overrides;   // parameters replacing the ones of the config files of the store and actors
+
+    // parameters of the actors, parsed once and handed to each of them, replaced when their file changes
+    public volatile Assistant.Settings assistantSettings;
+    public volatile Customer.Settings  customerSettings;
 
     public HashMap<Category, Section> sections; // sections of the shop containing items
     public DeliveryBox deliveryBox;             // box where the items get delivered
 
-    private DeliveryTruck truck; // delivers items with probability 1% each tick
-    private Random random;       // random number generator
+    public final Dispatcher dispatcher = new Dispatcher(); // wakes up the idle assistants
+
+    public final RestockStrategy restockStrategy; // decides which items the assistants take from the box
+    public final StoreLayout layout;              // walking times between the places of the store
+    public final DemandIndex demand = new DemandIndex(); // customers waiting in each section, and the most starved one
+    public final AtomicIntegerArray inFlight = new AtomicIntegerArray(Category.values().length); // items carried by 
+                                                                                                // assistants, per category
+
+    private final DeliveryTruck[] trucks; // deliver the items to the delivery box
+    private Random random;                // random number generator
+
+    private EventScheduler scheduler; // virtual clock used in events mode
+
+    private final List<Assistant> assistants = new CopyOnWriteArrayList<>(); // assistants working in the store
+    private final List<Customer> customers   = new CopyOnWriteArrayList<>(); // customers of the closed system
+    private ThreadFactory actorThreads; // threads and virtual modes: creates the threads of the actors
+    private final List<Thread> threads = new CopyOnWriteArrayList<>(); // threads started by "launch", joined by "stop"
+    private volatile boolean stopping;  // set by "stop", the actors leave the store
+
+    // changes of the config files, applied by the store at the next tick
+    private final Queue<Runnable> configChanges = new ConcurrentLinkedQueue<>();
+    private final Queue<Load> restoredLoads = new ArrayDeque<>(); // loads to give to the assistants, on restore
+
+    // every move of items between the delivery box, the assistants, the sections and
+    // the customers is done while holding the read lock, so that a snapshot taking
+    // the write lock sees every item in exactly one place
+    private final ReentrantReadWriteLock itemsGate = new ReentrantReadWriteLock();
+    private final StoreState.Moves moves = new StoreState.Moves(); // moves started and finished, for "state"
+    private volatile StoreState lastState; // state of the current tick, once an observer asked for it
+    private final StringBuilder tickMessage = new StringBuilder(); // reused by the tick log
+
+    private Chain chain; // chain the store belongs to, null if the store is on its own
+    private int shard;   // index of the store in its chain
+
+    // in virtual mode, the store is the only registered party and arrives
+    // once per tick, the actors just wait for the phase to advance
+    private final Phaser tickPhaser = new Phaser(1);
+    private int phaseOffset; // ticks before the phaser started, when restored from a snapshot
 
-    public volatile int itemsInBox; // number of items waiting to be put in sections
     public volatile int ticks;      // number of ticks since shop started
+    private int startTick;          // tick the current run started at, the one of the snapshot when restored
+    private long startSold;         // items sold before the current run
+
+    public final LongAdder itemsSold = new LongAdder(); // number of items bought by the customers
+    public final LongAdder itemsReceived = new LongAdder(); // items that entered the store (stocked, restored, delivered,
+                                                            // received from the chain), minus the ones sent to the chain
+    public final Metrics metrics     = new Metrics();   // live metrics of the store
+
+    private final Histogram boxBacklog = metrics.histogram("box.backlog"); // items in the delivery box at each tick
+    private final Histogram boxOccupancy = metrics.histogram("box.occupancy_pct"); // percentage of BOX_CAPACITY used, at each tick
 
-    public Store() {
+    private final Journal journal; // binary record of the events of the store, null if JOURNAL_FILE is empty
+    private final Autoscaler autoscaler; // hires and retires assistants, null if AUTOSCALE is false
+    private final AtomicInteger actors = new AtomicInteger(); // number of actors created so far
+
+    public Store() { this(new Properties()); }
+
+    /* Store whose configuration is the one of the config file, 
+     * except for the parameters given in "overrides".
+     */
+    public Store(Properties overrides) {
 
         String configFile = configFilename();
-        Properties config = loadConfigFile(configFile);
+        Properties config = loadConfigFile(configFile, overrides);
+
+        this.overrides = overrides;
+
+        assistantSettings = new Assistant.Settings(overrides);
+        customerSettings  = new Customer.Settings(overrides);
 
         INITIAL_ITEMS      = Integer.parseInt(config.getProperty("INITIAL_ITEMS"));
         TICK_TIME          = Integer.parseInt(config.getProperty("TICK_TIME"));
@@ -29,102 +123,563 @@ public class Store extends Util {
         ITEMS_PER_DELIVERY = Integer.parseInt(config.getProperty("ITEMS_PER_DELIVERY"));
         ASSISTANTS         = Integer.parseInt(config.getProperty("ASSISTANTS"));
         CUSTOMERS          = Integer.parseInt(config.getProperty("CUSTOMERS"));
+        MODE               = Mode.valueOf(config.getProperty("MODE", "THREADS"));
+        METRICS_FILE       = config.getProperty("METRICS_FILE", "");
+        METRICS_INTERVAL   = Integer.parseInt(config.getProperty("METRICS_INTERVAL", "100"));
+        SEED               = Long.parseLong(config.getProperty("SEED", "0"));
+        RESTOCK_STRATEGY   = config.getProperty("RESTOCK_STRATEGY", "GREEDY");
+        TARGET_STOCK       = Integer.parseInt(config.getProperty("TARGET_STOCK", "5"));
+        CHECKPOINT_FILE    = config.getProperty("CHECKPOINT_FILE", "");
+        CHECKPOINT_INTERVAL = Integer.parseInt(config.getProperty("CHECKPOINT_INTERVAL", "1000"));
+        RESTORE_FILE       = config.getProperty("RESTORE_FILE", "");
+        JOURNAL_FILE       = config.getProperty("JOURNAL_FILE", "");
+        LOCK_STRATEGY      = SharedResource.LockStrategy.valueOf(config.getProperty("LOCK_STRATEGY", "FAIR"));
+        ARRIVALS           = LoadGenerator.Arrivals.valueOf(config.getProperty("ARRIVALS", "CLOSED"));
+        TRUCKS             = Integer.parseInt(config.getProperty("TRUCKS", "1"));
+        BOX_CAPACITY       = Integer.parseInt(config.getProperty("BOX_CAPACITY", "0"));
+        BOX_FULL           = DeliveryTruck.WhenFull.valueOf(config.getProperty("BOX_FULL", "WAIT"));
+        AUTOSCALE          = Boolean.parseBoolean(config.getProperty("AUTOSCALE", "false"));
+
+        if (BOX_CAPACITY > 0 && ITEMS_PER_DELIVERY > BOX_CAPACITY) {
+            throw new IllegalArgumentException("ITEMS_PER_DELIVERY=" + ITEMS_PER_DELIVERY + " does not fit in BOX_CAPACITY=" + BOX_CAPACITY);
+        }
+
+        if (ARRIVALS != LoadGenerator.Arrivals.CLOSED && MODE != Mode.EVENTS) {
+            throw new IllegalArgumentException("ARRIVALS=" + ARRIVALS + " needs MODE=EVENTS");
+        }
+
+        if (JOURNAL_FILE.isEmpty()) { journal = null; }
+        else {
+            try { journal = new Journal(Paths.get(JOURNAL_FILE)); }
+            catch (IOException e) { throw new UncheckedIOException(e); }
+        }
 
-        random      = new Random();
+        restockStrategy = RESTOCK_STRATEGY.equals("PLANNER") ? new DemandPlanner(TARGET_STOCK) : new GreedyStrategy();
+        layout          = new StoreLayout(overrides);
+
+        Logger.setLevel(Logger.Level.valueOf(config.getProperty("LOG_LEVEL", "DEBUG")));
+
+        random      = SEED == 0 ? new Random() : new Random(SEED);
         sections    = new HashMap<>();
-        truck       = new DeliveryTruck();
-        deliveryBox = new DeliveryBox();
-
-        // instantiating each section with required initial number of items 
-        for(Category category : Category.values()) {
-            sections.put(category, new Section(category));
-            for (int i = 0; i < INITIAL_ITEMS; i++) {
-                sections.get(category).addItem(new Item(category));
+        deliveryBox = new DeliveryBox(LOCK_STRATEGY, BOX_CAPACITY);
+
+        // the first truck draws from the store generator, so that a single truck delivers as before
+        trucks = new DeliveryTruck[TRUCKS];
+        for (int i = 0; i < TRUCKS; i++) { trucks[i] = new DeliveryTruck(this, i == 0 ? random : new Random(newSeed())); }
+
+        deliveryBox.instrument(metrics);
+        metrics.gauge("box.items",  this::itemsInBox);
+        metrics.gauge("items.sold", itemsSold::sum);
+        metrics.gauge("assistant.working", () -> ASSISTANTS);
+        metrics.gauge("assistant.idle", dispatcher::idle);
+
+        autoscaler = AUTOSCALE ? new Autoscaler(this) : null;
+        if (autoscaler != null) { ASSISTANTS = autoscaler.initialAssistants(ASSISTANTS); }
+
+        for (Category category : Category.values()) {
+            Section section = new Section(category, LOCK_STRATEGY, demand);
+            sections.put(category, section);
+            section.instrument(metrics, "section." + category.name().toLowerCase());
+            metrics.gauge("section." + category.name().toLowerCase() + ".longest_wait", () -> section.longestWait(ticks));
+        }
+
+        if (RESTORE_FILE.isEmpty()) {
+            // instantiating each section with required initial number of items 
+            for (Category category : Category.values()) {
+                fillSection(category, INITIAL_ITEMS);
             }
+        } else { restore(Paths.get(RESTORE_FILE)); }
+    }
+
+    // parameters naming the files written by a store, see "runOverrides"
+    private static final String[] OUTPUT_FILES = { "METRICS_FILE", "JOURNAL_FILE", "CHECKPOINT_FILE", "REPORT_FILE" };
+
+    /* Overrides of run "run" of a store among several, that must not write the
+     * same files: "base" with the seed "seed", and each file written by the store
+     * (metrics, journal, checkpoints, autoscaler report) suffixed with ".run".
+     */
+    public static Properties runOverrides(Properties base, long seed, int run) {
+        Properties overrides = new Properties();
+        overrides.putAll(base);
+        overrides.setProperty("SEED", "" + seed);
+
+        Properties store = loadConfigFile("config/Store.config", base), autoscaler = loadConfigFile("config/Autoscaler.config", base);
+        for (String file : OUTPUT_FILES) {
+            String name = store.getProperty(file, autoscaler.getProperty(file, ""));
+            if (!name.isEmpty()) { overrides.setProperty(file, name + "." + run); }
+        }
+        return overrides;
+    }
+
+    /* Overrides of a store simulated alongside others, in events mode without
+     * logging: "base" with the seed "seed", starting from INITIAL_ITEMS and
+     * writing no file.
+     */
+    public static Properties isolatedRun(Properties base, long seed) {
+        Properties overrides = new Properties();
+        overrides.putAll(base);
+        overrides.setProperty("MODE", "EVENTS");
+        overrides.setProperty("LOG_LEVEL", "OFF");
+        overrides.setProperty("SEED", "" + seed);
+        overrides.setProperty("RESTORE_FILE", "");
+        for (String file : OUTPUT_FILES) { overrides.setProperty(file, ""); }
+        return overrides;
+    }
+
+    /* Put "count" new items in the section of category "category". */
+    private void fillSection(Category category, int count) {
+        Section section = sections.get(category);
+
+        section.requestAccess();
+        try { section.addItems(count); } 
+        finally { section.freeAccess(); }
+        itemsReceived.add(count);
+        record(Journal.Event.STOCK, category, -1, count);
+    }
+
+    /* Start from the state saved in the snapshot "file". */
+    private void restore(Path file) {
+        Snapshot snapshot;
+        try { snapshot = Snapshot.read(file); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+
+        ticks       = snapshot.ticks;
+        phaseOffset = snapshot.ticks; // the phaser starts at phase 0 whatever the tick
+        itemsSold.add(snapshot.itemsSold);
+        itemsReceived.add(snapshot.itemsSold);
+        itemsReceived.add(Arrays.stream(snapshot.boxItems).sum());
+        for (Load load : snapshot.carried) { itemsReceived.add(load.size()); }
+
+        for (Category category : Category.values()) {
+            fillSection(category, snapshot.sectionItems[category.ordinal()]);
         }
+        deliveryBox.addItems(snapshot.boxItems);
+
+        // the loads of the assistants, if there are now less assistants
+        // than when the snapshot was taken, the extra loads go back to the box
+        for (Load load : snapshot.carried) {
+            if (restoredLoads.size() < ASSISTANTS) { restoredLoads.add(load); continue; }
+            for (Category category : load.route()) { deliveryBox.addItems(category, load.items(category)); }
+        }
+
+        log("restored from " + file + "\n", ticks);
     }
 
-    public boolean emptyDeliveryBox() { return itemsInBox == 0; }
+    /* Load carried by the next assistant when the store is restored, null if none. */
+    public synchronized Load restoredLoad() { return restoredLoads.poll(); }
 
-    private boolean deliveryArrived() { return random.nextInt(DELIVERY_INTERVAL) == 0; }
+    /* Called before moving items from one place of the store to another. */
+    public void beginItemsMove() { 
+        itemsGate.readLock().lock(); 
+        moves.beginMove();
+    }
+
+    /* Called once the items have been moved. */
+    public void endItemsMove() { 
+        moves.endMove();
+        itemsGate.readLock().unlock(); 
+    }
 
-    /* Receive a delivery from the delivry truck
-     * and put the items in the store delivery box.
+    /* Consistent picture of the counters of the store, taken without
+     * blocking the actors, see "StoreState".
      */
-    private void receiveDelivery() {
+    public StoreState state() { return StoreState.of(this, moves); }
 
-        // ensuring no two assistants can put or take items from
-        // the delivery box simultaneously
-        deliveryBox.requestAccess();
+    /* State taken during the current tick, for observers that do not need a newer one:
+     * it is only taken when first asked for in the tick, then shared by the observers.
+     */
+    public StoreState lastState() {
+        StoreState state = lastState;
+        if (state == null || state.ticks != ticks) { lastState = state = state(); }
+        return state;
+    }
 
+    /* Consistent copy of the store state. No item can be moved while it is
+     * taken, which only takes the time to copy a few counters per section
+     * and the loads of the assistants.
+     */
+    public Snapshot snapshot() {
+        int[] sectionItems = new int[Category.values().length];
+        int[] boxItems     = new int[Category.values().length];
+        List<Load> carried = new ArrayList<>();
+
+        itemsGate.writeLock().lock();
         try {
-            // receive delivery
-            Item[] itemsDelivered = truck.randomDelivery(random, ITEMS_PER_DELIVERY);
+            for (Category category : Category.values()) {
+                sectionItems[category.ordinal()] = sections.get(category).itemsWithoutAccess(); // no move meanwhile
+                boxItems[category.ordinal()]     = deliveryBox.numberOfItems(category);
+            }
+            for (Assistant assistant : assistants) { carried.add(assistant.carriedItems()); }
 
-            Map<Category, Integer> count = new HashMap<>(); // used to display the number of items in each section
-            for (Category category : Category.values()) { count.put(category, 0); }
+            return new Snapshot(ticks, itemsSold.sum(), sectionItems, boxItems, carried);
+        } finally { itemsGate.writeLock().unlock(); }
+    }
 
-            // put the items in the delivery box
-            for (Item item : itemsDelivered) { 
-                deliveryBox.addItemToBox(item); 
-                count.put(item.getCategory(), count.get(item.getCategory()) + 1);
-                itemsInBox++;
-            }
+    /* Save a snapshot of the store to CHECKPOINT_FILE. */
+    private void checkpoint() {
+        try { snapshot().write(Paths.get(CHECKPOINT_FILE)); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    /* New assistant working in the store. */
+    private Assistant newAssistant() {
+        Assistant assistant = new Assistant(this);
+        assistants.add(assistant);
+        return assistant;
+    }
+
+    /* New customer of the closed system. */
+    private Customer newCustomer() {
+        Customer customer = new Customer(this);
+        customers.add(customer);
+        return customer;
+    }
+
+    /* Make "actor" start working, as an event or on its own thread depending on the mode. */
+    private void launch(Runnable actor) {
+        if (MODE != Mode.EVENTS) {
+            Thread thread = actorThreads.newThread(actor);
+            threads.add(thread);
+            thread.start();
+        } else if (actor instanceof Assistant) { ((Assistant) actor).simulate(scheduler); }
+        else { ((Customer) actor).simulate(scheduler); }
+    }
+
+    /* Called by a retired assistant when it stops working. */
+    public void leave(Assistant assistant) { assistants.remove(assistant); }
+
+    /* Called by a retired customer when it leaves the store. */
+    public void leave(Customer customer) { customers.remove(customer); }
+
+    /* Hire or retire assistants and customers until there are ASSISTANTS
+     * and CUSTOMERS of them working. The retired ones stop once they are 
+     * done with what they are doing (a trip, a purchase).
+     */
+    private void scaleActors() {
+        int working = 0;
+        for (Assistant assistant : assistants) {
+            if (assistant.isRetired()) { continue; }
+            if (++working > ASSISTANTS) { assistant.retire(); }
+        }
+        for (; working < ASSISTANTS; working++) { launch(newAssistant()); }
+        dispatcher.post(); // the idle assistants that were retired must wake up to leave
+
+        if (ARRIVALS != LoadGenerator.Arrivals.CLOSED) { return; }
+        int shopping = 0;
+        for (Customer customer : customers) {
+            if (customer.isRetired()) { continue; }
+            if (++shopping > CUSTOMERS) { customer.retire(); }
+        }
+        for (; shopping < CUSTOMERS; shopping++) { launch(newCustomer()); }
+    }
+
+    /* Apply the store config file again, after it changed. */
+    private void reloadConfig() {
+        Properties config = loadConfigFile(configFilename(), overrides);
+
+        // all parsed before any is applied, so that an invalid file changes nothing
+        int tickTime       = Config.getInt(config, "TICK_TIME");
+        int assistantCount = Config.getInt(config, "ASSISTANTS");
+        int customerCount  = Config.getInt(config, "CUSTOMERS");
+        Logger.Level level = Logger.Level.valueOf(config.getProperty("LOG_LEVEL", "DEBUG"));
 
-            // logging the delivery
+        TICK_TIME  = tickTime;
+        ASSISTANTS = autoscaler == null ? assistantCount : autoscaler.initialAssistants(assistantCount);
+        CUSTOMERS  = customerCount;
+        Logger.setLevel(level);
+
+        log("config reloaded: TICK_TIME=" + TICK_TIME + " ASSISTANTS=" + ASSISTANTS + " CUSTOMERS=" + CUSTOMERS + "\n", ticks);
+        scaleActors();
+    }
+
+    /* Apply the changes of the config files while the store runs, the
+     * changes are applied by the store between two ticks.
+     */
+    private void watchConfig() {
+        Config.watch(configFilename(), () -> configChanges.add(this::reloadConfig));
+        Config.watch(Assistant.Settings.FILE, () -> configChanges.add(() -> {
+            assistantSettings = new Assistant.Settings(overrides);
+            assistants.forEach(assistant -> assistant.configure(assistantSettings));
+        }));
+        Config.watch(Customer.Settings.FILE, () -> configChanges.add(() -> {
+            customerSettings = new Customer.Settings(overrides);
+            customers.forEach(customer -> customer.configure(customerSettings));
+        }));
+    }
+
+    /* Make the store exchange items with the other stores of "chain". */
+    public void joinChain(Chain chain, int shard) {
+        this.chain = chain;
+        this.shard = shard;
+    }
+
+    /* Identifier of a new actor, used in the journal. */
+    public int newActorId() { return actors.getAndIncrement(); }
+
+    /* Record an event in the journal, if any. "actor" is -1 for the store. */
+    public void record(Journal.Event event, Category category, int actor, int value) {
+        if (journal != null) { journal.record(ticks, event, category, actor, value); }
+    }
+
+    /* Flush the journal, if any. */
+    private void closeJournal() {
+        if (journal == null) { return; }
+        try { journal.close(); }
+        catch (IOException e) { e.printStackTrace(); }
+    }
+
+    /* Seed for the random number generator of an actor, derived from the
+     * store one so that a run with a given SEED can be reproduced.
+     */
+    public long newSeed() { return random.nextLong(); }
+
+    /* Number of items waiting to be put in sections. */
+    public int itemsInBox() { return deliveryBox.numberOfItems(); }
+
+    public boolean emptyDeliveryBox() { return itemsInBox() == 0; }
+
+    /* Receive the "items" items of a delivery, "delivery" being the number
+     * of items of each category, and put them in the store delivery box in
+     * a single batch. Returns false, and receives nothing, if the box does
+     * not have room for all of them.
+     */
+    public boolean receiveDelivery(int[] delivery, int items) {
+        // each category of the box has its own lock so assistants can keep taking items meanwhile
+        beginItemsMove();
+        try {
+            if (!deliveryBox.tryAddItems(delivery, items)) { return false; }
+            itemsReceived.add(items);
+        } finally { endItemsMove(); }
+        dispatcher.post(); // there is work for the idle assistants
+
+        for (Category category : Category.values()) {
+            if (delivery[category.ordinal()] > 0) { record(Journal.Event.DELIVERY, category, -1, delivery[category.ordinal()]); }
+        }
+
+        // logging the delivery
+        if (Logger.enabled(Logger.Level.INFO)) {
             StringBuilder deliveryMsg = new StringBuilder();
             deliveryMsg.append("=> Delivery Received:");
             for (Category category : Category.values()) {
-                deliveryMsg.append(" " + category.toString() + ":" + count.get(category));
+                deliveryMsg.append(" " + category.toString() + ":" + delivery[category.ordinal()]);
             }
             deliveryMsg.append("\n\n");
             print(deliveryMsg.toString());
-
-        } finally { 
-            deliveryBox.freeAccess(); // allow the assistants to access the delivery box
         }
+        return true;
     }
 
     /* Logging the state of the shop at each tick. */
     private void tickLog() {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        stringBuilder.append("\n | sections: ");
+        if (!Logger.enabled(Logger.Level.INFO)) { return; } // no need to take the state nor build the message
 
-        for (Category category : Category.values()) {
-            Section section = sections.get(category);
-            stringBuilder.append(category + ": " + section.numberOfItems() + " (");
-            stringBuilder.append("" + section.waitingCustomers);
-            stringBuilder.append(") ");
-        }
-        stringBuilder.append("\n");
+        StoreState state = lastState();
 
-        stringBuilder.append(" | delivery box: ");
-        for (Category category : Category.values()) {
-            stringBuilder.append(category + ": " + deliveryBox.numberOfItems(category) + " ");
-        }
-        stringBuilder.append("\n");
+        tickMessage.setLength(0);
+        log(state.describe(tickMessage).toString(), state.ticks);
+    }
 
-        log(stringBuilder.toString(), ticks);
+    /* Used by the actors between two updates, returns once the store
+     * is (likely) past tick "tick".
+     */
+    public void awaitNextTick(int tick) {
+        if (MODE == Mode.VIRTUAL) { tickPhaser.awaitAdvance(tick - phaseOffset); }
+        else { sleep(1); } // small pause between updates
     }
 
     public void tick() {
+        Runnable change;
+        while ((change = configChanges.poll()) != null) {
+            try { change.run(); }
+            catch (RuntimeException e) { log("invalid config change ignored: " + e + "\n", ticks); }
+        }
+
         ticks++; // increment number of ticks
+        tickPhaser.arrive(); // wake up the actors waiting for this tick
 
         tickLog(); // print the state of the shop
 
-        // receive delivery with probability 1%.
-        if (deliveryArrived()) { receiveDelivery(); }
+        if (autoscaler != null) {
+            int wanted = autoscaler.tick(ASSISTANTS);
+            if (wanted != ASSISTANTS) { ASSISTANTS = wanted; scaleActors(); }
+        }
+
+        boxBacklog.record(itemsInBox());
+        if (BOX_CAPACITY > 0) { boxOccupancy.record(100L * itemsInBox() / BOX_CAPACITY); }
+        if (!METRICS_FILE.isEmpty() && ticks % METRICS_INTERVAL == 0) {
+            metrics.writeSnapshot(Paths.get(METRICS_FILE), ticks);
+        }
+
+        // events mode: the trucks arrive with probability 1 / DELIVERY_INTERVAL,
+        // in the other modes they run on their own threads
+        if (MODE == Mode.EVENTS) {
+            for (DeliveryTruck truck : trucks) { truck.step(); }
+        }
+
+        if (chain != null) { chain.exchange(shard); }
+
+        if (!CHECKPOINT_FILE.isEmpty() && ticks % CHECKPOINT_INTERVAL == 0) { checkpoint(); }
+    }
+
+    /* True once "stop" was called. */
+    public boolean isStopping() { return stopping; }
+
+    /* Number of ticks since the current run started. */
+    public int ticksRun() { return ticks - startTick; }
+
+    /* Number of items sold since the current run started. */
+    public long itemsSoldRun() { return itemsSold.sum() - startSold; }
+
+    /* Called when a run starts, the bounds of the run counting from there. */
+    private void startRun() {
+        startTick = ticks;
+        startSold = itemsSold.sum();
+    }
+
+    /* True once "maxTicks" ticks passed or "maxPurchases" items were sold
+     * since the run started, no limit if 0.
+     */
+    private boolean reached(long maxTicks, long maxPurchases) {
+        return (maxTicks > 0 && ticksRun() >= maxTicks) || (maxPurchases > 0 && itemsSoldRun() >= maxPurchases);
+    }
+
+    /* Events mode: the store ticks every tick of the virtual clock,
+     * and the actors are scheduled instead of running on their own threads,
+     * the simulation stops after "duration" ticks.
+     */
+    public void simulate(long duration) { simulate(duration, 0); }
+
+    /* Events mode: same as "simulate(duration)", stopping earlier once
+     * "maxPurchases" items were sold (no limit if 0).
+     */
+    public void simulate(long duration, long maxPurchases) {
+        scheduler = new EventScheduler();
+        startRun();
+
+        log("starting the store (events mode)...\n", ticks);
+
+        for (int i = 0; i < ASSISTANTS; i++) { launch(newAssistant()); }
+        if (ARRIVALS == LoadGenerator.Arrivals.CLOSED) {
+            for (int i = 0; i < CUSTOMERS; i++) { launch(newCustomer()); }
+        } else { new LoadGenerator(this, ARRIVALS).simulate(scheduler); }
+
+        Runnable tickEvent = new Runnable() {
+            @Override
+            public void run() {
+                tick();
+                if (reached(0, maxPurchases)) { scheduler.stop(); return; }
+                scheduler.schedule(1, this);
+            }
+        };
+        scheduler.schedule(1, tickEvent);
+
+        scheduler.runUntil(duration);
+        closeJournal();
+    }
+
+    /* Returns a factory of virtual threads, virtual threads are only available
+     * from Java 21, on older runtimes we fall back to platform threads.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return Executors.defaultThreadFactory();
+        }
+    }
+
+    /* Virtual mode: all the actors are started at once on virtual threads,
+     * and wait on the tick phaser instead of polling the number of ticks.
+     */
+    private void startVirtual() {
+        actorThreads = virtualThreadFactory();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal));
+
+        log("starting the store (virtual mode)...\n", ticks);
+
+        for (int i = 0; i < ASSISTANTS; i++) { launch(newAssistant()); }
+        for (int i = 0; i < CUSTOMERS; i++)  { launch(newCustomer()); }
+        for (DeliveryTruck truck : trucks)   { launch(truck); }
+
+        for (;;) { 
+            sleep(TICK_TIME);
+            tick(); 
+        }
+    }
+
+    /* Run the store, in any mode, until "maxTicks" ticks passed or "maxPurchases"
+     * items were sold (no limit if 0, at least one of them must be set), without 
+     * the pauses of "start" and without watching the config files, then stop all 
+     * the actors. In events mode the store ticks as fast as it can, the other
+     * modes need a TICK_TIME of at least 1 ms, as the actors sleep and poll in
+     * real time.
+     */
+    public void run(long maxTicks, long maxPurchases) {
+        if (maxTicks <= 0 && maxPurchases <= 0) { throw new IllegalArgumentException("the run must be bounded"); }
+
+        if (MODE == Mode.EVENTS) {
+            simulate(maxTicks > 0 ? maxTicks : Long.MAX_VALUE, maxPurchases);
+            return;
+        }
+        if (TICK_TIME <= 0) { throw new IllegalArgumentException("TICK_TIME=" + TICK_TIME + " needs MODE=EVENTS"); }
+
+        actorThreads = MODE == Mode.VIRTUAL ? virtualThreadFactory() : Thread::new;
+        startRun();
+        log("starting the store (bounded run)...\n", ticks);
+
+        for (int i = 0; i < ASSISTANTS; i++) { launch(newAssistant()); }
+        for (int i = 0; i < CUSTOMERS; i++)  { launch(newCustomer()); }
+        for (DeliveryTruck truck : trucks)   { launch(truck); }
+
+        while (!reached(maxTicks, maxPurchases)) {
+            sleep(TICK_TIME);
+            tick();
+        }
+        stop();
+    }
+
+    /* Threads and virtual modes: make all the actors leave the store, once done with
+     * what they are doing, and wait for their threads to end. The customers waiting 
+     * for an item and the trucks waiting for room leave without them.
+     */
+    private void stop() {
+        stopping = true;
+        for (Assistant assistant : assistants) { assistant.retire(); }
+        for (Customer customer : customers)    { customer.retire(); }
+        for (Section section : sections.values()) { section.close(); }
+        deliveryBox.close();
+        tickPhaser.forceTermination(); // no more ticks, the actors waiting for one go on
+
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                dispatcher.post(); // an idle assistant may have read the notifications before being retired
+                try { thread.join(10); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+            }
+        }
+        closeJournal();
+        log("store stopped\n", ticks);
     }
 
     public void start() {
+        watchConfig();
+
+        if (MODE == Mode.EVENTS)  { simulate(Long.MAX_VALUE); return; }
+        if (MODE == Mode.VIRTUAL) { startVirtual(); return; }
+
+        actorThreads = Thread::new;
         log("starting the store...\n", ticks); sleep(100);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal));
 
         // starting the assistants threads
-        for (int i = 0; i < ASSISTANTS; i++) { new Thread(new Assistant(this)).start(); sleep(100); } print("\n");
+        for (int i = 0; i < ASSISTANTS; i++) { launch(newAssistant()); sleep(100); } print("\n");
 
         // starting the customers threads
-        for (int i = 0; i < CUSTOMERS; i++) { new Thread(new Customer(this)).start(); sleep(100); } print("\n");
+        for (int i = 0; i < CUSTOMERS; i++) { launch(newCustomer()); sleep(100); } print("\n");
+
+        // starting the delivery trucks threads
+        for (DeliveryTruck truck : trucks) { launch(truck); }
 
         for (;;) { 
             sleep(TICK_TIME);
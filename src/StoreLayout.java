@@ -0,0 +1,147 @@
+import java.util.*;
+
+/* Floor of the store: the delivery area and the section of each category
+ * are places linked by paths, PATHS being a list of "FROM-TO:ticks" paths
+ * (for example "DELIVERY_AREA-BOOKS:4,BOOKS-TOYS:2"), the places being
+ * DELIVERY_AREA and the categories. If PATHS is empty, every two places
+ * are DISTANCE ticks apart. The walking time between every two places,
+ * along the shortest path, is computed once.
+ * With ROUTING=SHORTEST, the assistants visit the sections of the items
+ * they carry in the order taking the least time, the time to reach a
+ * section growing with the number of items still carried; with AS_TAKEN,
+ * in the order in which they took the items.
+ */
+public class StoreLayout extends Util {
+    public static enum Routing { AS_TAKEN, SHORTEST }
+
+    private static final Category[] CATEGORIES = Category.values();
+    public static final int DELIVERY_AREA = CATEGORIES.length; // index of the delivery area, the sections being
+                                                               // indexed by the ordinal of their category
+
+    private final Routing ROUTING;
+    private final int[][] distances; // walking time between every two places, along the shortest path
+
+    public StoreLayout(Properties overrides) {
+        Properties config = loadConfigFile(configFilename(), overrides);
+
+        ROUTING      = Routing.valueOf(config.getProperty("ROUTING", "SHORTEST"));
+        int distance = Integer.parseInt(config.getProperty("DISTANCE", "10"));
+        String paths = config.getProperty("PATHS", "").trim();
+
+        int places = CATEGORIES.length + 1;
+        distances  = new int[places][places];
+        for (int[] row : distances) { Arrays.fill(row, paths.isEmpty() ? distance : Integer.MAX_VALUE / 2); }
+        for (int i = 0; i < places; i++) { distances[i][i] = 0; }
+
+        for (String path : paths.isEmpty() ? new String[0] : paths.split(",")) {
+            String[] ends = path.trim().split("[-:]");
+            if (ends.length != 3) { throw new IllegalArgumentException("invalid path \"" + path + "\", expected FROM-TO:ticks"); }
+            int from = place(ends[0].trim()), to = place(ends[1].trim()), ticks = Integer.parseInt(ends[2].trim());
+            distances[from][to] = distances[to][from] = Math.min(distances[from][to], ticks);
+        }
+
+        // Floyd-Warshall, there are only a few places
+        for (int k = 0; k < places; k++) {
+            for (int i = 0; i < places; i++) {
+                for (int j = 0; j < places; j++) {
+                    distances[i][j] = Math.min(distances[i][j], distances[i][k] + distances[k][j]);
+                }
+            }
+        }
+
+        for (int i = 0; i < places; i++) {
+            if (distances[DELIVERY_AREA][i] >= Integer.MAX_VALUE / 2) {
+                throw new IllegalArgumentException("no path from the delivery area to " + CATEGORIES[i]);
+            }
+        }
+    }
+
+    private static int place(String name) {
+        return name.equals("DELIVERY_AREA") ? DELIVERY_AREA : Category.valueOf(name).ordinal();
+    }
+
+    /* Walking time from place "from" to place "to". */
+    public int distance(int from, int to) { return distances[from][to]; }
+
+    /* Plans the routes of one assistant, reusing its buffers from one trip to the next. */
+    public final class Router {
+        private final int[][] time   = new int[1 << CATEGORIES.length][CATEGORIES.length]; // best time to visit a set of
+                                                                                           // sections, ending at one
+        private final int[][] before = new int[1 << CATEGORIES.length][CATEGORIES.length]; // section visited before it
+        private final int[] itemsIn  = new int[1 << CATEGORIES.length]; // items of the load in each set of sections
+        private final Category[] order = new Category[CATEGORIES.length];
+
+        /* Time to walk to the sections of "load" in its order, starting at place
+         * "from", and back to the delivery area, each walk to a section taking
+         * one more tick per item carried.
+         */
+        public int tripTime(Load load, int from) {
+            int carried = load.size(), at = from, total = 0;
+            for (Category category : load.route()) {
+                total   += distances[at][category.ordinal()] + carried;
+                carried -= load.items(category);
+                at       = category.ordinal();
+            }
+            return total + distances[at][DELIVERY_AREA];
+        }
+
+        /* True if the routes are planned, with ROUTING=SHORTEST. */
+        public boolean optimizes() { return ROUTING == Routing.SHORTEST; }
+
+        /* ROUTING=SHORTEST: reorder the visits of "load", starting at place "from", so
+         * that the trip takes the least time (exhaustively over the sets of sections).
+         */
+        public void plan(Load load, int from) {
+            if (!optimizes() || load.isEmpty()) { return; }
+
+            int sections = 0; // set of the sections to visit
+            for (Category category : CATEGORIES) {
+                if (load.items(category) > 0) { sections |= 1 << category.ordinal(); }
+            }
+
+            for (int set = 1; set <= sections; set++) {
+                if ((set & ~sections) != 0) { continue; }
+                int lowest = Integer.numberOfTrailingZeros(set);
+                itemsIn[set] = itemsIn[set & (set - 1)] + load.items(CATEGORIES[lowest]);
+
+                for (int last = 0; last < CATEGORIES.length; last++) {
+                    if ((set & (1 << last)) == 0) { continue; }
+                    int previous = set & ~(1 << last);
+                    int carried  = load.size() - itemsIn[previous]; // carried while walking to "last"
+
+                    if (previous == 0) {
+                        time[set][last]   = distances[from][last] + carried;
+                        before[set][last] = from;
+                        continue;
+                    }
+
+                    time[set][last] = Integer.MAX_VALUE;
+                    for (int other = 0; other < CATEGORIES.length; other++) {
+                        if ((previous & (1 << other)) == 0) { continue; }
+                        int candidate = time[previous][other] + distances[other][last] + carried;
+                        if (candidate < time[set][last]) { time[set][last] = candidate; before[set][last] = other; }
+                    }
+                }
+            }
+
+            int last = -1, best = Integer.MAX_VALUE;
+            for (int section = 0; section < CATEGORIES.length; section++) {
+                if ((sections & (1 << section)) == 0) { continue; }
+                int candidate = time[sections][section] + distances[section][DELIVERY_AREA];
+                if (candidate < best) { best = candidate; last = section; }
+            }
+
+            int count = Integer.bitCount(sections), set = sections;
+            for (int i = count - 1; i >= 0; i--) {
+                order[i] = CATEGORIES[last];
+                int previous = before[set][last];
+                set &= ~(1 << last);
+                last = previous;
+            }
+            load.reorder(order, count);
+        }
+    }
+
+    /* Router for a new assistant. */
+    public Router newRouter() { return new Router(); }
+}
@@ -0,0 +1,128 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Consistent, point-in-time picture of where the items of a store are,
+ * read without blocking the actors. Every move of items is bracketed by
+ * "beginMove" and "endMove", and a picture is taken by reading all the
+ * counters between two checks that no move was in progress and that
+ * none started meanwhile (a seqlock with many writers): the counters
+ * are then exactly the ones of the instant of the first check.
+ * The pictures are immutable, so they can be shared with any observer.
+ */
+public final class StoreState {
+
+    /* Counts of the moves started and finished, shared by all the actors of a store. */
+    public static final class Moves {
+        private final AtomicLong started  = new AtomicLong();
+        private final AtomicLong finished = new AtomicLong();
+
+        public void beginMove() { started.incrementAndGet(); }
+
+        public void endMove() { finished.incrementAndGet(); }
+
+        /* Version of the counters if no move is in progress, -1 otherwise. */
+        long stable() {
+            long done = finished.get();
+            return started.get() == done ? done : -1;
+        }
+
+        /* True if no move started since version "version". The counters of the sections
+         * are plain fields, the fence keeps their reads before this check.
+         */
+        boolean unchanged(long version) {
+            VarHandle.acquireFence();
+            return started.get() == version;
+        }
+    }
+
+    public final long version;         // number of moves done before the picture
+    public final int ticks;
+    public final long itemsSold;
+    public final long itemsReceived;   // items that entered the store, see "Store.itemsReceived"
+    public final int[] sectionItems;   // per category
+    public final int[] boxItems;       // per category
+    public final int[] carriedItems;   // per category, carried by the assistants
+    public final int[] waitingCustomers; // per category, only as of the picture, waiting is not a move
+
+    private StoreState(long version, int ticks, long itemsSold, long itemsReceived, int[] sectionItems,
+                       int[] boxItems, int[] carriedItems, int[] waitingCustomers) {
+        this.version          = version;
+        this.ticks            = ticks;
+        this.itemsSold        = itemsSold;
+        this.itemsReceived    = itemsReceived;
+        this.sectionItems     = sectionItems;
+        this.boxItems         = boxItems;
+        this.carriedItems     = carriedItems;
+        this.waitingCustomers = waitingCustomers;
+    }
+
+    /* Take a picture of "store", retrying until no move overlaps the reads. */
+    static StoreState of(Store store, Moves moves) {
+        int categories = Category.values().length;
+        int[] sectionItems     = new int[categories];
+        int[] boxItems         = new int[categories];
+        int[] carriedItems     = new int[categories];
+        int[] waitingCustomers = new int[categories];
+
+        for (int attempt = 0; ; attempt++) {
+            long version = moves.stable();
+
+            if (version >= 0) {
+                long itemsSold     = store.itemsSold.sum();
+                long itemsReceived = store.itemsReceived.sum();
+                for (Category category : Category.values()) {
+                    Section section = store.sections.get(category);
+                    int c = category.ordinal();
+                    sectionItems[c]     = section.itemsWithoutAccess();
+                    boxItems[c]         = store.deliveryBox.numberOfItems(category);
+                    carriedItems[c]     = store.inFlight.get(c);
+                    waitingCustomers[c] = section.waitingCustomers();
+                }
+
+                if (moves.unchanged(version)) {
+                    return new StoreState(version, store.ticks, itemsSold, itemsReceived, sectionItems,
+                                          boxItems, carriedItems, waitingCustomers);
+                }
+            }
+
+            if (attempt < 64) { Thread.onSpinWait(); }
+            else { Thread.yield(); } // the actors are busy, let them finish their moves
+        }
+    }
+
+    /* Number of items in the store, sold or not, which only changes with deliveries and transfers. */
+    public long totalItems() {
+        long total = itemsSold;
+        for (int c = 0; c < sectionItems.length; c++) { total += sectionItems[c] + boxItems[c] + carriedItems[c]; }
+        return total;
+    }
+
+    /* True if every item that entered the store is in exactly one place:
+     * sold, in a section, in the delivery box or carried by an assistant.
+     */
+    public boolean itemsConserved() { return totalItems() == itemsReceived; }
+
+    /* True if no counter of the picture is negative. */
+    public boolean countsValid() {
+        if (itemsSold < 0) { return false; }
+        for (int c = 0; c < sectionItems.length; c++) {
+            if (sectionItems[c] < 0 || boxItems[c] < 0 || carriedItems[c] < 0 || waitingCustomers[c] < 0) { return false; }
+        }
+        return true;
+    }
+
+    /* Append the state of the sections and the delivery box to "builder", as in the tick log. */
+    public StringBuilder describe(StringBuilder builder) {
+        builder.append("\n | sections: ");
+        for (Category category : Category.values()) {
+            int c = category.ordinal();
+            builder.append(category).append(": ").append(sectionItems[c])
+                   .append(" (").append(waitingCustomers[c]).append(") ");
+        }
+        builder.append("\n | delivery box: ");
+        for (Category category : Category.values()) {
+            builder.append(category).append(": ").append(boxItems[category.ordinal()]).append(' ');
+        }
+        return builder.append('\n');
+    }
+}
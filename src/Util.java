@@ -1,5 +1,8 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
-import java.io.*;
 
 public abstract class Util {
 
@@ -7,63 +10,67 @@ public abstract class Util {
         return "config/" + this.getClass().getName() + ".config";
     }
 
+    /* Content of "fileName", read once and cached by "Config". */
     public final static Properties loadConfigFile(String fileName) {
-        Properties properties  = new Properties();
-        try (InputStream input = new FileInputStream(fileName)) {
-            properties.load(input);
-        } catch (IOException e) { e.printStackTrace(); }
-        return properties;
+        return Config.get(fileName, new Properties());
     }
 
-    public static final Object loggingLock = new Object();
+    /* Load "fileName", then replace its parameters by the ones given in "overrides". */
+    public final static Properties loadConfigFile(String fileName, Properties overrides) {
+        return Config.get(fileName, overrides);
+    }
 
     public static enum Color { ORANGE, RED, GREEN }
 
+    private final Logger.Source logSource = Logger.Source.of(this); // decides the color of the messages
+
+    /* Write "content" to "file", through a temporary file moved over it
+     * atomically, so that readers never see a partially written file.
+     */
+    public static void writeAtomically(Path file, ByteBuffer content) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) { channel.write(content); }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     public static void sleep(int ms) {
         try { Thread.sleep(ms); } 
         catch(Exception e) { e.printStackTrace(); }
     }
 
+    /* Level at which the messages of this object are logged. */
+    private Logger.Level logLevel() {
+        return logSource == Logger.Source.STORE || logSource == Logger.Source.TRUCK ? Logger.Level.INFO : Logger.Level.DEBUG;
+    }
+
     public void log(String message, int ticks) {
-        synchronized (loggingLock) {
-            switch (getClass().getName()) {
-
-                case "Store": // white
-                    System.out.println("<tick "+ ticks + "> <thread " + Thread.currentThread().getId()+ "> " + message); 
-                    break;
-
-                case "Customer": // orange
-                    System.out.println("\033[38;5;208m<tick " + ticks + "> <thread " + Thread.currentThread().getId() + "> " + message + "\033[0m");
-                    break;
-
-                case "Assistant": // red
-                    System.out.println("\033[0;31m<tick "+ ticks + "> <thread " + Thread.currentThread().getId() +"> " + message + "\033[0m");
-                    break;
-        
-                default: 
-                    break;
-            }
+        if (Logger.enabled(logLevel())) { Logger.append(logSource, false, ticks, message); }
+    }
+
+    /* Log "template", its "{}" being replaced by the arguments when the message is written,
+     * by the logger thread, so that nothing is allocated when logging.
+     */
+    public void log(String template, Object first, int ticks) { log(template, 1, first, 0, null, 0, ticks); }
+
+    public void log(String template, long first, int ticks) { log(template, 1, null, first, null, 0, ticks); }
+
+    public void log(String template, Object first, long second, int ticks) { log(template, 2, first, 0, null, second, ticks); }
+
+    public void log(String template, long first, Object second, int ticks) { log(template, 2, null, first, second, 0, ticks); }
+
+    public void log(String template, long first, long second, int ticks) { log(template, 2, null, first, null, second, ticks); }
+
+    private void log(String template, int args, Object first, long firstNumber, Object second, long secondNumber, int ticks) {
+        if (Logger.enabled(logLevel())) {
+            Logger.append(logSource, false, ticks, template, args, first, firstNumber, second, secondNumber);
         }
     }
 
     public void print(String message) {
-        synchronized (loggingLock) {
-            switch (getClass().getName()) {
-
-                case "Store": // green
-                    System.out.print("\033[0;32m" + message + "\033[0m"); 
-                    break;
-
-                case "Customer": // orange
-                    System.out.print("\033[38;5;208m" + message + "\033[0m");
-                    break;
-
-                case "Assistant": // red
-                    System.out.println("\033[0;31m" + message + "\033[0m");
-                    break;
-        
-                default: break;
-            }
-        }
+        if (Logger.enabled(logLevel())) { Logger.append(logSource, true, 0, message); }
     }
 }